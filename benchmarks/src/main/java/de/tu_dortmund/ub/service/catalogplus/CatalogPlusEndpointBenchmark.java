@@ -0,0 +1,253 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.service.catalogplus;
+
+import de.tu_dortmund.ub.service.catalogplus.benchmark.Servlets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot path of the endpoint against the in-memory {@link de.tu_dortmund.ub.service.catalogplus.benchmark.StubResourceDiscoveryService}.
+ * Requests are handled synchronously, so the numbers contain no thread hand-off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogPlusEndpointBenchmark {
+
+    private static final String UB_INTERN = "10.0.0.1, 129.217.132.20";
+    private static final String TU_INTERN = "129.217.7.4";
+    private static final String EXTERN = "10.0.0.1, 192.0.2.17";
+
+    @Param({ "false", "true" })
+    public String cache;
+
+    private File directory;
+    private CatalogPlusEndpoint endpoint;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+
+        this.directory = Files.createTempDirectory("catalogplus-benchmark").toFile();
+
+        File log4j = new File(this.directory, "log4j.properties");
+        InputStream inputStream = CatalogPlusEndpointBenchmark.class.getClassLoader().getResourceAsStream("benchmark-log4j.properties");
+        try {
+            Files.copy(inputStream, log4j.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            inputStream.close();
+        }
+
+        Properties config = new Properties();
+        config.setProperty("service.name", "benchmark");
+        config.setProperty("service.log4j-conf", log4j.getAbsolutePath());
+        config.setProperty("service.iprange.tu", "129.217.0.0/16");
+        config.setProperty("service.iprange.tu.exceptions", "129.217.1.0/24");
+        config.setProperty("service.iprange.ub", "129.217.132.0/24|2001:638:50d::/48");
+        config.setProperty("service.iprange.ub.exceptions", "");
+        config.setProperty("service.async", "false");
+        config.setProperty("service.cache", this.cache);
+
+        File conffile = new File(this.directory, "api.properties");
+        OutputStream outputStream = new FileOutputStream(conffile);
+        try {
+            config.store(new OutputStreamWriter(outputStream, "UTF-8"), null);
+        }
+        finally {
+            outputStream.close();
+        }
+
+        this.endpoint = new CatalogPlusEndpoint(conffile.getAbsolutePath());
+        this.endpoint.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        this.endpoint.destroy();
+
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    /**
+     * Requests and responses are not thread-safe, so every benchmark thread gets its own.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+
+        final Body body = new Body();
+        final HttpServletResponse response = Servlets.response(this.body);
+
+        final HttpServletRequest parameters = Servlets.request("/search", "q=einführung+informatik&fq=Format:Buch&fq=Sprache:de&start=0&rows=20&sort=year&local=1&news=false");
+
+        final HttpServletRequest searchHtml = Servlets.request("/search", "q=informatik&rows=20", "X-Forwarded-For", EXTERN, "Accept", "text/html", "Accept-Language", "de-DE");
+        final HttpServletRequest searchJson = Servlets.request("/search", "q=informatik&rows=20&format=json", "X-Forwarded-For", UB_INTERN);
+        final HttpServletRequest searchXml = Servlets.request("/search", "q=informatik&rows=20&format=xml", "X-Forwarded-For", UB_INTERN);
+        final HttpServletRequest searchNegotiated = Servlets.request("/search", "q=informatik&rows=20", "X-Forwarded-For", UB_INTERN, "Accept", "application/json", "Accept-Language", "en-US,en;q=0.8");
+        final HttpServletRequest typeahead = Servlets.request("/typeahead", "q=inf&format=json", "X-Forwarded-For", EXTERN);
+
+        final HttpServletRequest errorJson = Servlets.request("/unknown", "format=json", "X-Forwarded-For", UB_INTERN);
+        final HttpServletRequest errorXml = Servlets.request("/unknown", "format=xml", "X-Forwarded-For", UB_INTERN);
+    }
+
+    @Benchmark
+    public Properties handleRequestParameters(Requests requests) {
+
+        return this.endpoint.handleRequestParameters(requests.parameters);
+    }
+
+    @Benchmark
+    public long analyseAccessRightsUB() {
+
+        return this.endpoint.analyseAccessRights(UB_INTERN);
+    }
+
+    @Benchmark
+    public long analyseAccessRightsTU() {
+
+        return this.endpoint.analyseAccessRights(TU_INTERN);
+    }
+
+    @Benchmark
+    public long analyseAccessRightsExtern() {
+
+        return this.endpoint.analyseAccessRights(EXTERN);
+    }
+
+    @Benchmark
+    public long searchHtml(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.searchHtml);
+    }
+
+    @Benchmark
+    public long searchJson(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.searchJson);
+    }
+
+    @Benchmark
+    public long searchXml(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.searchXml);
+    }
+
+    @Benchmark
+    public long searchNegotiated(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.searchNegotiated);
+    }
+
+    @Benchmark
+    public long typeahead(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.typeahead);
+    }
+
+    @Benchmark
+    public long requestErrorJson(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.errorJson);
+    }
+
+    @Benchmark
+    public long requestErrorXml(Requests requests) throws IOException {
+
+        return this.doGet(requests, requests.errorXml);
+    }
+
+    private long doGet(Requests requests, HttpServletRequest request) throws IOException {
+
+        requests.body.length = 0;
+        this.endpoint.doGet(request, requests.response);
+        requests.response.getWriter().flush();
+
+        return requests.body.length;
+    }
+
+    /**
+     * Discards the response body, only its length is kept.
+     */
+    static class Body extends Writer {
+
+        long length;
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+
+            this.length += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+
+            this.length += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus;
+
+import org.eclipse.jetty.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole server on platform threads vs. virtual threads with a slow {@link de.tu_dortmund.ub.service.catalogplus.benchmark.StubResourceDiscoveryService}.
+ * One operation is a burst of 'concurrency' simultaneous search requests; the throughput is 'concurrency' divided by
+ * the time per operation. With platform threads, the bursts are limited by the size of the thread pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogPlusServiceBenchmark {
+
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    // backend delay in ms
+    @Param({ "500" })
+    public String delay;
+
+    @Param({ "1000" })
+    public int concurrency;
+
+    private File directory;
+    private Server server;
+    private ExecutorService clientExecutor;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+
+        this.directory = Files.createTempDirectory("catalogplus-benchmark").toFile();
+
+        File log4j = new File(this.directory, "log4j.properties");
+        InputStream inputStream = CatalogPlusServiceBenchmark.class.getClassLoader().getResourceAsStream("benchmark-log4j.properties");
+        try {
+            Files.copy(inputStream, log4j.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            inputStream.close();
+        }
+
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        }
+        finally {
+            socket.close();
+        }
+
+        Properties config = new Properties();
+        config.setProperty("service.name", "benchmark");
+        config.setProperty("service.log4j-conf", log4j.getAbsolutePath());
+        config.setProperty("service.port", Integer.toString(port));
+        config.setProperty("service.resourceBase", this.directory.getAbsolutePath());
+        config.setProperty("service.contextPath", "/");
+        config.setProperty("service.endpoint.catalogplus", "/katalog");
+        config.setProperty("service.iprange.tu", "129.217.0.0/16");
+        config.setProperty("service.iprange.tu.exceptions", "129.217.1.0/24");
+        config.setProperty("service.iprange.ub", "129.217.132.0/24");
+        config.setProperty("service.iprange.ub.exceptions", "");
+        config.setProperty("service.threads.virtual", Boolean.toString(this.threads.equals("virtual")));
+        config.setProperty("service.async", "false");
+        config.setProperty("service.coalescing", "false");
+        config.setProperty("benchmark.rds.delay", this.delay);
+
+        File conffile = new File(this.directory, "api.properties");
+        OutputStream outputStream = new FileOutputStream(conffile);
+        try {
+            config.store(new OutputStreamWriter(outputStream, "UTF-8"), null);
+        }
+        finally {
+            outputStream.close();
+        }
+
+        this.server = CatalogPlusService.createServer(conffile.getAbsolutePath(), config);
+        CatalogPlusService.start(this.server);
+
+        // the client must not be the bottleneck
+        this.clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(this.clientExecutor).build();
+        this.request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/katalog/search?q=informatik&format=json"))
+                .header("X-Forwarded-For", "129.217.132.20")
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+
+        this.server.stop();
+        this.clientExecutor.shutdownNow();
+
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    @Benchmark
+    public void burst() {
+
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<CompletableFuture<HttpResponse<Void>>>(this.concurrency);
+
+        for (int i = 0; i < this.concurrency; i++) {
+            responses.add(this.client.sendAsync(this.request, HttpResponse.BodyHandlers.discarding()));
+        }
+
+        // all requests are in flight, joining them one by one waits for the whole burst
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+
+            int status = response.join().statusCode();
+
+            if (status != 200) {
+                throw new IllegalStateException("Status " + status);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.service.catalogplus.benchmark;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal synchronous servlet requests and responses, so the endpoint can be driven without a container.
+ */
+public class Servlets {
+
+    /**
+     * @param pathInfo e.g. "/search"
+     * @param queryString e.g. "q=informatik&fq=Format:Buch&format=json"; values are taken as is, not url decoded
+     * @param headers alternating names and values
+     */
+    public static HttpServletRequest request(final String pathInfo, final String queryString, String... headers) {
+
+        final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+
+        for (String parameter : queryString.split("&")) {
+
+            if (parameter.isEmpty()) {
+                continue;
+            }
+
+            int separator = parameter.indexOf('=');
+            String name = separator < 0 ? parameter : parameter.substring(0, separator);
+            String value = separator < 0 ? "" : parameter.substring(separator + 1);
+
+            String[] values = parameters.get(name);
+
+            if (values == null) {
+                parameters.put(name, new String[] { value });
+            }
+            else {
+
+                String[] extended = new String[values.length + 1];
+                System.arraycopy(values, 0, extended, 0, values.length);
+                extended[values.length] = value;
+                parameters.put(name, extended);
+            }
+        }
+
+        final Map<String, String> headerMap = new LinkedHashMap<String, String>();
+
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            headerMap.put(headers[i], headers[i + 1]);
+        }
+
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+
+        return (HttpServletRequest) Proxy.newProxyInstance(Servlets.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                switch (method.getName()) {
+
+                    case "getPathInfo": {
+                        return pathInfo;
+                    }
+                    case "getQueryString": {
+                        return queryString;
+                    }
+                    case "getRequestURL": {
+                        return new StringBuffer("http://localhost/katalog").append(pathInfo);
+                    }
+                    case "getParameter": {
+                        String[] values = parameters.get(args[0]);
+                        return values == null ? null : values[0];
+                    }
+                    case "getParameterValues": {
+                        return parameters.get(args[0]);
+                    }
+                    case "getParameterMap": {
+                        return parameters;
+                    }
+                    case "getHeader": {
+                        return headerMap.get(args[0]);
+                    }
+                    case "getHeaderNames": {
+                        return Collections.enumeration(headerMap.keySet());
+                    }
+                    case "getAttribute": {
+                        return attributes.get(args[0]);
+                    }
+                    case "setAttribute": {
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    }
+                    case "isAsyncSupported":
+                    case "isAsyncStarted": {
+                        return false;
+                    }
+                    case "hashCode": {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "equals": {
+                        return proxy == args[0];
+                    }
+                    default: {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param body receives everything written into the response
+     */
+    public static HttpServletResponse response(Writer body) {
+
+        final PrintWriter writer = new PrintWriter(body);
+
+        return (HttpServletResponse) Proxy.newProxyInstance(Servlets.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+
+                switch (method.getName()) {
+
+                    case "getWriter": {
+                        return writer;
+                    }
+                    case "isCommitted": {
+                        return false;
+                    }
+                    case "hashCode": {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "equals": {
+                        return proxy == args[0];
+                    }
+                    // status, headers and content type are not of interest here
+                    default: {
+                        return null;
+                    }
+                }
+            }
+        });
+    }
+}
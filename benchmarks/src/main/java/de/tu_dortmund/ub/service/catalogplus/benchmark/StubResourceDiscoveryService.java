@@ -0,0 +1,125 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.service.catalogplus.benchmark;
+
+import de.tu_dortmund.ub.service.catalogplus.rds.RDSException;
+import de.tu_dortmund.ub.service.catalogplus.rds.ResourceDiscoveryService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * In-memory Resource Discovery Service returning fixture payloads from the classpath. Configured via
+ * "META-INF/services" so the endpoint picks it up like a real plugin. "benchmark.rds.delay" (in ms) simulates a slow
+ * backend.
+ */
+public class StubResourceDiscoveryService implements ResourceDiscoveryService {
+
+    private final String html = fixture("fixtures/search.html");
+    private final String xml = fixture("fixtures/search.xml");
+    private final String json = fixture("fixtures/search.json");
+    private final String suggestions = fixture("fixtures/suggestions.json");
+
+    private long delay = 0;
+
+    @Override
+    public void init(Properties config) {
+
+        this.delay = Long.parseLong(config.getProperty("benchmark.rds.delay", "0"));
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+        this.backend();
+        return this.html;
+    }
+
+    @Override
+    public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+        this.backend();
+        return this.xml;
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+        this.backend();
+        return this.json;
+    }
+
+    @Override
+    public String getSuggestions(String prefix) throws RDSException {
+
+        this.backend();
+        return this.suggestions;
+    }
+
+    private void backend() throws RDSException {
+
+        if (this.delay > 0) {
+
+            try {
+                Thread.sleep(this.delay);
+            }
+            catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new RDSException("Interrupted");
+            }
+        }
+    }
+
+    private static String fixture(String name) {
+
+        try {
+
+            InputStream inputStream = StubResourceDiscoveryService.class.getClassLoader().getResourceAsStream(name);
+
+            try {
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+
+                return outputStream.toString("UTF-8");
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        catch (IOException e) {
+
+            throw new IllegalStateException("Fixture '" + name + "' not readable!", e);
+        }
+    }
+}
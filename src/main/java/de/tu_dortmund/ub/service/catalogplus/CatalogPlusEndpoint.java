@@ -24,40 +24,124 @@ SOFTWARE.
 
 package de.tu_dortmund.ub.service.catalogplus;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import de.tu_dortmund.ub.service.catalogplus.model.RequestError;
+import de.tu_dortmund.ub.service.catalogplus.rds.AsyncResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.CachingResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.CoalescingResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.ExecutorResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.HedgingResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.MetricsResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.PrefetchingResourceDiscoveryService;
 import de.tu_dortmund.ub.service.catalogplus.rds.RDSException;
+import de.tu_dortmund.ub.service.catalogplus.rds.RecordBatcher;
+import de.tu_dortmund.ub.service.catalogplus.rds.RecordRetrievalService;
 import de.tu_dortmund.ub.service.catalogplus.rds.ResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.ResilientResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.ResourceDiscoveryServiceDecorator;
+import de.tu_dortmund.ub.service.catalogplus.rds.RequestKey;
+import de.tu_dortmund.ub.service.catalogplus.rds.StreamingResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.rds.SuggestionEngine;
+import de.tu_dortmund.ub.service.catalogplus.rds.VersionedResourceDiscoveryService;
+import de.tu_dortmund.ub.service.catalogplus.vcs.CachingVirtualClassificationSystem;
+import de.tu_dortmund.ub.service.catalogplus.vcs.ClassBatch;
+import de.tu_dortmund.ub.service.catalogplus.vcs.EnumerableVirtualClassificationSystem;
+import de.tu_dortmund.ub.service.catalogplus.vcs.MetricsVirtualClassificationSystem;
+import de.tu_dortmund.ub.service.catalogplus.vcs.VCSException;
 import de.tu_dortmund.ub.service.catalogplus.vcs.VirtualClassificationSystem;
-import de.tu_dortmund.ub.util.impl.Lookup;
+import de.tu_dortmund.ub.util.impl.AlertMailer;
+import de.tu_dortmund.ub.util.impl.Bulkhead;
+import de.tu_dortmund.ub.util.impl.CircuitBreaker;
+import de.tu_dortmund.ub.util.impl.DiskCache;
+import de.tu_dortmund.ub.util.impl.ETag;
+import de.tu_dortmund.ub.util.impl.ETagWriter;
+import de.tu_dortmund.ub.util.impl.HttpClientAware;
+import de.tu_dortmund.ub.util.impl.HttpClientFactory;
+import de.tu_dortmund.ub.util.impl.IpRangeMatcher;
 import de.tu_dortmund.ub.util.impl.Mailer;
+import de.tu_dortmund.ub.util.impl.Metrics;
+import de.tu_dortmund.ub.util.impl.ProviderRegistry;
+import de.tu_dortmund.ub.util.impl.ResponseCache;
 import de.tu_dortmund.ub.util.output.ObjectToHtmlTransformation;
+import de.tu_dortmund.ub.util.output.Serializer;
+import de.tu_dortmund.ub.util.output.StreamingObjectToHtmlTransformation;
 import de.tu_dortmund.ub.util.output.TransformationException;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
-import javax.mail.MessagingException;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 public class CatalogPlusEndpoint extends HttpServlet {
 
+    private static final String REQUEST_DURATION = "catalogplus_request_duration_seconds";
+    private static final String RENDER_DURATION = "catalogplus_render_duration_seconds";
+    private static final String ERRORS = "catalogplus_errors_total";
+
+    private static final String METRICS_START = CatalogPlusEndpoint.class.getName() + ".start";
+    private static final String METRICS_LABELS = CatalogPlusEndpoint.class.getName() + ".labels";
+    // cache key of the result served instead of an error
+    private static final String STALE_KEY = CatalogPlusEndpoint.class.getName() + ".stale";
+
     // Configuration
     private Properties config = new Properties();
     private Logger logger = Logger.getLogger(CatalogPlusEndpoint.class.getName());
 
-    private String format;
-    private String language;
-    private boolean isTUintern;
-    private boolean isUBintern;
+    // Serialization of the error messages
+    private final Serializer serializer;
+    private final Map<String, String> errorBodies = new HashMap<String, String>();
+
+    // Metrics
+    private final Metrics metrics;
+
+    // Plugins
+    private ProviderRegistry providerRegistry;
+    private HttpClientFactory httpClientFactory;
+    private ResourceDiscoveryService resourceDiscoveryService;
+    private StreamingResourceDiscoveryService streamingResourceDiscoveryService;
+    private AsyncResourceDiscoveryService asyncResourceDiscoveryService;
+    private VirtualClassificationSystem virtualClassificationSystem;
+    private CachingVirtualClassificationSystem cachingVirtualClassificationSystem;
+    private final int maxClasses;
+    private AlertMailer alertMailer;
+    private ResilientResourceDiscoveryService resilientResourceDiscoveryService;
+    private HedgingResourceDiscoveryService hedgingResourceDiscoveryService;
+    private VersionedResourceDiscoveryService versionedResourceDiscoveryService;
+    private CachingResourceDiscoveryService cachingResourceDiscoveryService;
+    private PrefetchingResourceDiscoveryService prefetchingResourceDiscoveryService;
+
+    // HTTP caching
+    private boolean etags;
+    private int etagBuffer;
+    private final Map<String, String> cacheControl = new HashMap<String, String>();
+    private SuggestionEngine suggestionEngine;
+    private RecordRetrievalService recordRetrievalService;
+    private RecordBatcher recordBatcher;
+    private long asyncTimeout;
+
+    // Access rights
+    private IpRangeMatcher ipRangeMatcher;
+    private int accessGroupTU;
+    private int accessGroupUB;
 
     public CatalogPlusEndpoint() throws IOException {
 
@@ -94,6 +178,532 @@ public class CatalogPlusEndpoint extends HttpServlet {
         this.logger.info("[" + this.config.getProperty("service.name") + "] " + "Starting 'CatalogPlusEndpoint' ...");
         this.logger.info("[" + this.config.getProperty("service.name") + "] " + "conf-file = " + conffile);
         this.logger.info("[" + this.config.getProperty("service.name") + "] " + "log4j-conf-file = " + this.config.getProperty("service.log4j-conf"));
+
+        // quantiles over a sliding window
+        this.metrics = new Metrics(Long.parseLong(this.config.getProperty("service.metrics.window", "60")) * 1000);
+
+        this.metrics.describe(REQUEST_DURATION, "summary", "Duration of the requests by service and format.");
+        this.metrics.describe(RENDER_DURATION, "summary", "Time spent rendering records and error messages.");
+        this.metrics.describe(ERRORS, "counter", "Error responses by code.");
+
+        // serializers for the error messages
+        try {
+            this.serializer = new Serializer(RequestError.class);
+        }
+        catch (JAXBException e) {
+            throw new IOException("JAXB context for 'RequestError' not available!", e);
+        }
+
+        for (String format : new String[] { "json", "xml" }) {
+
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "The service 'null' is not implemented.");
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "The service '/' is not implemented.");
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "You are not allowed to request results in '" + format + "'!");
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "Service 'typeahead' does not support format '" + format + "'!");
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "Service 'typeahead' does not support format 'html'!");
+            this.precomputeErrorBody(format, HttpServletResponse.SC_BAD_REQUEST, "BAD REQUEST", "Malformed request!");
+        }
+
+        // HTTP caching
+        this.etags = Boolean.parseBoolean(this.config.getProperty("service.etag", "true"));
+        this.etagBuffer = Integer.parseInt(this.config.getProperty("service.etag.buffer", "65536"));
+
+        this.cacheControl.put("search", this.config.getProperty("service.cache-control.search", "private, max-age=60"));
+        this.cacheControl.put("getRecords", this.config.getProperty("service.cache-control.getRecords", "private, max-age=300"));
+        this.cacheControl.put("typeahead", this.config.getProperty("service.cache-control.typeahead", "private, max-age=300"));
+        this.cacheControl.put("class", this.config.getProperty("service.cache-control.class", "private, max-age=86400"));
+        this.cacheControl.put("stale", this.config.getProperty("service.cache-control.stale", "no-cache"));
+        this.cacheControl.put("incomplete", this.config.getProperty("service.cache-control.incomplete", "no-store"));
+
+        this.maxClasses = Integer.parseInt(this.config.getProperty("service.vcs.batch.max", "100"));
+
+        // compile ip ranges
+        IpRangeMatcher.Builder ipRanges = new IpRangeMatcher.Builder();
+        this.accessGroupTU = ipRanges.addGroup(this.config.getProperty("service.iprange.tu"), this.config.getProperty("service.iprange.tu.exceptions"));
+        this.accessGroupUB = ipRanges.addGroup(this.config.getProperty("service.iprange.ub"), this.config.getProperty("service.iprange.ub.exceptions"));
+        this.ipRangeMatcher = ipRanges.build();
+    }
+
+    @Override
+    public void init() throws ServletException {
+
+        // init plugins once for all requests
+        this.providerRegistry = new ProviderRegistry(this.config);
+
+        ResourceDiscoveryService resourceDiscoveryPlugin = this.providerRegistry.register(ResourceDiscoveryService.class, new ProviderRegistry.Initializer<ResourceDiscoveryService>() {
+            @Override
+            public void init(ResourceDiscoveryService provider, Properties config) {
+                injectHttpClient(provider);
+                provider.init(config);
+            }
+        });
+        VirtualClassificationSystem virtualClassificationPlugin = this.providerRegistry.register(VirtualClassificationSystem.class, new ProviderRegistry.Initializer<VirtualClassificationSystem>() {
+            @Override
+            public void init(VirtualClassificationSystem provider, Properties config) {
+                injectHttpClient(provider);
+                provider.init(config);
+            }
+        });
+        this.providerRegistry.register(ObjectToHtmlTransformation.class, new ProviderRegistry.Initializer<ObjectToHtmlTransformation>() {
+            @Override
+            public void init(ObjectToHtmlTransformation provider, Properties config) {
+                provider.init(config);
+            }
+        });
+
+        if (virtualClassificationPlugin != null) {
+
+            this.virtualClassificationSystem = new MetricsVirtualClassificationSystem(virtualClassificationPlugin, this.metrics);
+
+            // the classification changes rarely: keep its renderings
+            if (Boolean.parseBoolean(this.config.getProperty("service.vcs.cache", "true"))) {
+
+                this.cachingVirtualClassificationSystem = new CachingVirtualClassificationSystem(this.virtualClassificationSystem,
+                        virtualClassificationPlugin instanceof EnumerableVirtualClassificationSystem ? (EnumerableVirtualClassificationSystem) virtualClassificationPlugin : null, this.config);
+                this.virtualClassificationSystem = this.cachingVirtualClassificationSystem;
+
+                this.registerCacheMetrics("vcs", this.cachingVirtualClassificationSystem.getCache());
+            }
+        }
+
+        if (resourceDiscoveryPlugin instanceof VersionedResourceDiscoveryService) {
+            this.versionedResourceDiscoveryService = (VersionedResourceDiscoveryService) resourceDiscoveryPlugin;
+        }
+
+        // record level access for 'getRecords'
+        if (resourceDiscoveryPlugin instanceof RecordRetrievalService) {
+
+            this.recordRetrievalService = (RecordRetrievalService) resourceDiscoveryPlugin;
+        }
+
+        if (resourceDiscoveryPlugin != null) {
+            this.resourceDiscoveryService = new MetricsResourceDiscoveryService(resourceDiscoveryPlugin, this.metrics);
+        }
+
+        // timeouts, bulkheads and circuit breaker around the plugin
+        if (this.resourceDiscoveryService != null && Boolean.parseBoolean(this.config.getProperty("service.resilience", "false"))) {
+
+            this.resilientResourceDiscoveryService = new ResilientResourceDiscoveryService(this.resourceDiscoveryService, this.config);
+            this.resourceDiscoveryService = this.resilientResourceDiscoveryService;
+
+            if (this.recordRetrievalService != null) {
+                this.recordRetrievalService = this.resilientResourceDiscoveryService.decorate(this.recordRetrievalService);
+            }
+
+            this.registerResilienceMetrics(this.resilientResourceDiscoveryService);
+        }
+
+        // duplicate slow search requests
+        if (this.resourceDiscoveryService != null && Boolean.parseBoolean(this.config.getProperty("service.hedging", "false"))) {
+
+            final HedgingResourceDiscoveryService hedgingResourceDiscoveryService = new HedgingResourceDiscoveryService(this.resourceDiscoveryService, this.config);
+            this.hedgingResourceDiscoveryService = hedgingResourceDiscoveryService;
+            this.resourceDiscoveryService = hedgingResourceDiscoveryService;
+
+            this.metrics.register("catalogplus_hedged_requests_total", "counter", Metrics.labels("result", "fired"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return hedgingResourceDiscoveryService.getHedges();
+                }
+            });
+            this.metrics.register("catalogplus_hedged_requests_total", "counter", Metrics.labels("result", "won"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return hedgingResourceDiscoveryService.getWins();
+                }
+            });
+            this.metrics.register("catalogplus_hedged_requests_total", "counter", Metrics.labels("result", "budget_exhausted"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return hedgingResourceDiscoveryService.getBudgetExhausted();
+                }
+            });
+            this.metrics.register("catalogplus_hedging_delay_seconds", "gauge", "", new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return hedgingResourceDiscoveryService.getDelayMillis() / 1000.0;
+                }
+            });
+        }
+
+        if (this.recordRetrievalService != null) {
+
+            this.recordBatcher = new RecordBatcher(this.recordRetrievalService, this.config);
+
+            this.registerCacheMetrics("records", this.recordBatcher.getCache());
+        }
+
+        // identical concurrent requests share one backend call
+        if (this.resourceDiscoveryService != null && Boolean.parseBoolean(this.config.getProperty("service.coalescing", "true"))) {
+
+            final CoalescingResourceDiscoveryService coalescingResourceDiscoveryService = new CoalescingResourceDiscoveryService(this.resourceDiscoveryService);
+            this.resourceDiscoveryService = coalescingResourceDiscoveryService;
+
+            this.metrics.register("catalogplus_coalesced_requests_total", "counter", "", new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return coalescingResourceDiscoveryService.getSingleFlight().getShared();
+                }
+            });
+        }
+        if (this.resourceDiscoveryService != null && Boolean.parseBoolean(this.config.getProperty("service.cache", "false"))) {
+
+            this.cachingResourceDiscoveryService = new CachingResourceDiscoveryService(this.resourceDiscoveryService, this.config);
+            this.resourceDiscoveryService = this.cachingResourceDiscoveryService;
+
+            this.registerCacheMetrics("rds", this.cachingResourceDiscoveryService.getCache());
+
+            final CachingResourceDiscoveryService cachingResourceDiscoveryService = this.cachingResourceDiscoveryService;
+
+            this.metrics.register("catalogplus_cache_refreshes_total", "counter", Metrics.labels("cache", "rds", "state", "done"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return cachingResourceDiscoveryService.getRefreshes();
+                }
+            });
+            this.metrics.register("catalogplus_cache_refreshes_total", "counter", Metrics.labels("cache", "rds", "state", "failed"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return cachingResourceDiscoveryService.getRefreshFailures();
+                }
+            });
+
+            // next page of a search into the cache
+            if (Boolean.parseBoolean(this.config.getProperty("service.prefetch", "false"))) {
+
+                final PrefetchingResourceDiscoveryService prefetchingResourceDiscoveryService = new PrefetchingResourceDiscoveryService(this.cachingResourceDiscoveryService, this.config);
+                this.prefetchingResourceDiscoveryService = prefetchingResourceDiscoveryService;
+                this.resourceDiscoveryService = prefetchingResourceDiscoveryService;
+
+                this.metrics.register("catalogplus_prefetches_total", "counter", Metrics.labels("state", "done"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return prefetchingResourceDiscoveryService.getPrefetches();
+                    }
+                });
+                this.metrics.register("catalogplus_prefetches_total", "counter", Metrics.labels("state", "hit"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return prefetchingResourceDiscoveryService.getHits();
+                    }
+                });
+                this.metrics.register("catalogplus_prefetches_total", "counter", Metrics.labels("state", "skipped"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return prefetchingResourceDiscoveryService.getSkipped();
+                    }
+                });
+            }
+        }
+        else if (Boolean.parseBoolean(this.config.getProperty("service.prefetch", "false"))) {
+
+            this.logger.warn("[" + this.config.getProperty("service.name") + "] " + "'service.prefetch' requires 'service.cache'!");
+        }
+
+        // local typeahead index
+        if (this.config.getProperty("service.typeahead.index") != null) {
+            this.suggestionEngine = new SuggestionEngine(this.config);
+        }
+
+        // asynchronous request handling: native async plugins are called through the decorators supporting it, blocking
+        // plugins run on a bounded executor; not needed by default if requests are handled on virtual threads
+        boolean virtualThreads = Boolean.parseBoolean(this.config.getProperty("service.threads.virtual", "false"));
+
+        if (this.resourceDiscoveryService != null && Boolean.parseBoolean(this.config.getProperty("service.async", Boolean.toString(!virtualThreads)))) {
+
+            if (ResourceDiscoveryServiceDecorator.isAsync(this.resourceDiscoveryService)) {
+                this.asyncResourceDiscoveryService = (AsyncResourceDiscoveryService) this.resourceDiscoveryService;
+            }
+            else {
+                if (resourceDiscoveryPlugin instanceof AsyncResourceDiscoveryService) {
+                    this.logger.info("[" + this.config.getProperty("service.name") + "] " + "Asynchronous plugin runs on the RDS executor: 'service.resilience' and 'service.hedging' need its blocking API");
+                }
+
+                final ExecutorResourceDiscoveryService executorResourceDiscoveryService = new ExecutorResourceDiscoveryService(this.resourceDiscoveryService, this.config);
+                this.asyncResourceDiscoveryService = executorResourceDiscoveryService;
+
+                this.metrics.register("catalogplus_rds_executor_active_threads", "gauge", "", new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return executorResourceDiscoveryService.getActiveCount();
+                    }
+                });
+                this.metrics.register("catalogplus_rds_executor_queue_size", "gauge", "", new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return executorResourceDiscoveryService.getQueueSize();
+                    }
+                });
+            }
+            this.asyncTimeout = Long.parseLong(this.config.getProperty("service.async.timeout", "30000"));
+        }
+
+        // results are streamed into the response; the decorators fall back to the plugin's String API if necessary
+        if (this.resourceDiscoveryService instanceof StreamingResourceDiscoveryService) {
+            this.streamingResourceDiscoveryService = (StreamingResourceDiscoveryService) this.resourceDiscoveryService;
+        }
+        else if (this.resourceDiscoveryService != null) {
+            this.streamingResourceDiscoveryService = new ResourceDiscoveryServiceDecorator(this.resourceDiscoveryService) {};
+        }
+
+        // alert mails are sent in the background
+        if (this.config.getProperty("service.mailer.conf") != null) {
+
+            try {
+
+                final AlertMailer alertMailer = new AlertMailer(new Mailer(this.config.getProperty("service.mailer.conf")), this.config);
+                this.alertMailer = alertMailer;
+
+                this.metrics.register("catalogplus_alerts_total", "counter", Metrics.labels("state", "sent"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return alertMailer.getSent();
+                    }
+                });
+                this.metrics.register("catalogplus_alerts_total", "counter", Metrics.labels("state", "suppressed"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return alertMailer.getSuppressed();
+                    }
+                });
+                this.metrics.register("catalogplus_alerts_total", "counter", Metrics.labels("state", "dropped"), new Metrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return alertMailer.getDropped();
+                    }
+                });
+            }
+            catch (IOException e) {
+
+                this.logger.error("[" + this.config.getProperty("service.name") + "] " + "Mailer not available: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The pool is created for the first plugin asking for it.
+     */
+    private void injectHttpClient(Object provider) {
+
+        if (!(provider instanceof HttpClientAware)) {
+            return;
+        }
+
+        if (this.httpClientFactory == null) {
+
+            final HttpClientFactory httpClientFactory = new HttpClientFactory(this.config);
+            this.httpClientFactory = httpClientFactory;
+
+            this.metrics.register("catalogplus_http_connections", "gauge", Metrics.labels("state", "leased"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return httpClientFactory.getPoolStats().getLeased();
+                }
+            });
+            this.metrics.register("catalogplus_http_connections", "gauge", Metrics.labels("state", "available"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return httpClientFactory.getPoolStats().getAvailable();
+                }
+            });
+            this.metrics.register("catalogplus_http_connections", "gauge", Metrics.labels("state", "pending"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return httpClientFactory.getPoolStats().getPending();
+                }
+            });
+            this.metrics.register("catalogplus_http_connections", "gauge", Metrics.labels("state", "max"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return httpClientFactory.getPoolStats().getMax();
+                }
+            });
+        }
+
+        ((HttpClientAware) provider).setHttpClient(this.httpClientFactory.getHttpClient());
+    }
+
+    private void registerResilienceMetrics(ResilientResourceDiscoveryService resilientResourceDiscoveryService) {
+
+        for (String operation : ResilientResourceDiscoveryService.OPERATIONS) {
+
+            final CircuitBreaker circuitBreaker = resilientResourceDiscoveryService.getCircuitBreaker(operation);
+            final Bulkhead bulkhead = resilientResourceDiscoveryService.getBulkhead(operation);
+            String labels = Metrics.labels("operation", operation);
+
+            // 0 = closed, 1 = open, 2 = half open
+            this.metrics.register("catalogplus_breaker_state", "gauge", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return circuitBreaker.getState().ordinal();
+                }
+            });
+            this.metrics.register("catalogplus_breaker_opened_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return circuitBreaker.getOpened();
+                }
+            });
+            this.metrics.register("catalogplus_breaker_rejections_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return circuitBreaker.getRejected();
+                }
+            });
+
+            this.metrics.register("catalogplus_bulkhead_active", "gauge", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return bulkhead.getActiveCount();
+                }
+            });
+            this.metrics.register("catalogplus_bulkhead_rejections_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return bulkhead.getRejected();
+                }
+            });
+            this.metrics.register("catalogplus_bulkhead_timeouts_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return bulkhead.getTimeouts();
+                }
+            });
+        }
+    }
+
+    private void registerCacheMetrics(String cache, final ResponseCache responseCache) {
+
+        String labels = Metrics.labels("cache", cache);
+
+        this.metrics.register("catalogplus_cache_hits_total", "counter", labels, new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return responseCache.getHits();
+            }
+        });
+        this.metrics.register("catalogplus_cache_misses_total", "counter", labels, new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return responseCache.getMisses();
+            }
+        });
+        this.metrics.register("catalogplus_cache_evictions_total", "counter", labels, new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return responseCache.getEvictions();
+            }
+        });
+        this.metrics.register("catalogplus_cache_bytes", "gauge", labels, new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return responseCache.getBytes();
+            }
+        });
+        this.metrics.register("catalogplus_cache_stale_hits_total", "counter", labels, new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return responseCache.getStaleHits();
+            }
+        });
+
+        final DiskCache diskCache = responseCache.getDiskCache();
+
+        if (diskCache != null) {
+
+            this.metrics.register("catalogplus_cache_disk_hits_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return diskCache.getHits();
+                }
+            });
+            this.metrics.register("catalogplus_cache_disk_entries", "gauge", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return diskCache.getSize();
+                }
+            });
+            this.metrics.register("catalogplus_cache_disk_bytes", "gauge", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return diskCache.getBytes();
+                }
+            });
+            this.metrics.register("catalogplus_cache_disk_compactions_total", "counter", labels, new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return diskCache.getCompactions();
+                }
+            });
+        }
+    }
+
+    private void precomputeErrorBody(String format, int code, String error, String description) throws IOException {
+
+        RequestError requestError = new RequestError();
+        requestError.setCode(code);
+        requestError.setDescription(description);
+        requestError.setError(error);
+
+        try {
+            this.errorBodies.put(errorBodyKey(format, requestError), format.equals("xml") ? this.serializer.toXML(requestError) : this.serializer.toJSON(requestError));
+        }
+        catch (JAXBException e) {
+            throw new IOException("Error body for '" + description + "' not available!", e);
+        }
+    }
+
+    private static String errorBodyKey(String format, RequestError requestError) {
+
+        if (requestError.getErrorUri() != null) {
+            return null;
+        }
+
+        return format + "\u0000" + requestError.getCode() + "\u0000" + requestError.getError() + "\u0000" + requestError.getDescription();
+    }
+
+    public Metrics getMetrics() {
+
+        return this.metrics;
+    }
+
+    @Override
+    public void destroy() {
+
+        if (this.alertMailer != null) {
+            this.alertMailer.close();
+        }
+        if (this.suggestionEngine != null) {
+            this.suggestionEngine.close();
+        }
+        if (this.cachingVirtualClassificationSystem != null) {
+            this.cachingVirtualClassificationSystem.close();
+        }
+        if (this.cachingResourceDiscoveryService != null) {
+            this.cachingResourceDiscoveryService.close();
+        }
+        if (this.recordBatcher != null) {
+            this.recordBatcher.close();
+        }
+        if (this.prefetchingResourceDiscoveryService != null) {
+            this.prefetchingResourceDiscoveryService.close();
+        }
+        if (this.hedgingResourceDiscoveryService != null) {
+            this.hedgingResourceDiscoveryService.close();
+        }
+        if (this.resilientResourceDiscoveryService != null) {
+            this.resilientResourceDiscoveryService.close();
+        }
+        if (this.asyncResourceDiscoveryService instanceof ExecutorResourceDiscoveryService) {
+            ((ExecutorResourceDiscoveryService) this.asyncResourceDiscoveryService).close();
+        }
+        if (this.providerRegistry != null) {
+            this.providerRegistry.close();
+        }
+        // after the plugins, which may still use the client while closing
+        if (this.httpClientFactory != null) {
+            this.httpClientFactory.close();
+        }
     }
 
     public void doOptions(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException {
@@ -108,6 +718,8 @@ public class CatalogPlusEndpoint extends HttpServlet {
 
     public void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws IOException {
 
+        httpServletRequest.setAttribute(METRICS_START, System.nanoTime());
+
         httpServletResponse.setHeader("Access-Control-Allow-Origin", "*");
 
         this.logger.debug("PathInfo = " + httpServletRequest.getPathInfo());
@@ -130,435 +742,1090 @@ public class CatalogPlusEndpoint extends HttpServlet {
             }
         }
 
-        this.logger.debug("service = " + service);
+        this.logger.debug("service = " + service);
+
+        final RequestContext context = this.analyseRequest(httpServletRequest);
+
+        httpServletRequest.setAttribute(METRICS_LABELS, Metrics.labels("service", service.matches("search|getRecords|typeahead|api") ? service : "other", "format", context.getFormat().matches("html|json|xml") ? context.getFormat() : "other"));
+
+        // is service valid?
+        if (!service.equals("search") && !service.equals("typeahead") && !service.equals("getRecords") && !service.equals("api")) {
+
+            RequestError requestError = new RequestError();
+            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+            requestError.setDescription("The service '" + path + "' is not implemented.");
+            requestError.setError("BAD REQUEST");
+
+            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            this.sendRequestError(httpServletResponse, context, requestError);
+        }
+        else if (!service.equals("typeahead") && !context.getFormat().equals("html") && !context.isUBintern()) {
+
+            RequestError requestError = new RequestError();
+            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+            requestError.setDescription("You are not allowed to request results in '" + context.getFormat() + "'!");
+            requestError.setError("BAD REQUEST");
+
+            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            this.sendRequestError(httpServletResponse, context, requestError);
+        }
+        else if (service.equals("typeahead") && !context.getFormat().equals("json")) {
+
+            RequestError requestError = new RequestError();
+            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+            requestError.setDescription("Service 'typeahead' does not support format '" + context.getFormat() + "'!");
+            requestError.setError("BAD REQUEST");
+
+            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            this.sendRequestError(httpServletResponse, context, requestError);
+        }
+        else {
+
+            try {
+
+                if (service.equals("search") || service.equals("getRecords") || service.equals("typeahead")) {
+
+                    // Query
+                    Properties requestParameter = this.handleRequestParameters(httpServletRequest);
+                    requestParameter.setProperty("lang", context.getLanguage());
+
+                    // Resource Discovery Service API
+                    if (this.resourceDiscoveryService != null) {
+
+                        if (service.equals("search")) {
+
+                            if (requestParameter.getProperty("q").equals("") || requestParameter.getProperty("q").equals("*") || requestParameter.getProperty("q").equals("*:*") ||
+                                    (!requestParameter.getProperty("rows").equals("") && Integer.parseInt(requestParameter.getProperty("rows")) > 50) ||
+                                    (!requestParameter.getProperty("start").equals("") && Integer.parseInt(requestParameter.getProperty("start")) > 20)) {
+
+                                RequestError requestError = new RequestError();
+                                requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+                                requestError.setDescription("Malformed request!");
+                                requestError.setError("BAD REQUEST");
+
+                                httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                                this.sendRequestError(httpServletResponse, context, requestError);
+                            }
+                            else {
+
+                                Properties renderParameters = context.renderParameters();
+                                renderParameters.setProperty("service", service);
+
+                                String mode = "";
+                                if (httpServletRequest.getParameter("mode") != null) {
+
+                                    mode = httpServletRequest.getParameter("mode");
+                                }
+                                renderParameters.setProperty("mode", mode);
+
+                                // Query
+                                this.sendSearchResults(httpServletRequest, httpServletResponse, context, requestParameter, renderParameters, "text/html;charset=UTF-8");
+                            }
+                        }
+                        else if (service.equals("getRecords")) {
+
+                            String institution_param = "";
+                            if (httpServletRequest.getQueryString().contains("fq=Institution")) {
+
+                                for (String r : httpServletRequest.getParameterMap().keySet()) {
+
+                                    if (r.equals("fq") && httpServletRequest.getParameter(r).startsWith("Institution")) {
+                                        institution_param = "&fq=" + httpServletRequest.getParameter(r);
+                                        break;
+                                    }
+                                }
+                                this.logger.debug("[" + this.config.getProperty("service.name") + "] " + "institution_param: " + institution_param);
+                            }
+
+                            String htmlContentType = "text/html;charset=UTF-8";
+
+                            Properties renderParameters = context.renderParameters();
+                            renderParameters.setProperty("service", service);
+
+                            renderParameters.setProperty("recordset", institution_param);
+
+                            String mode = "";
+                            if (httpServletRequest.getParameter("mode") != null) {
+
+                                mode = httpServletRequest.getParameter("mode");
+                            }
+                            renderParameters.setProperty("mode", mode);
+                            if (mode.equals("simplehit")) {
+
+                                renderParameters.setProperty("getRecordsBaseURL", httpServletRequest.getRequestURL().toString() + "?ids=");
+                            }
+
+                            if (mode.equals("embedded") || mode.equals("simplehit")) {
+
+                                htmlContentType = "text/xml";
+                            }
+
+                            if (this.recordBatcher != null) {
+                                this.sendRecords(httpServletRequest, httpServletResponse, context, requestParameter, renderParameters, htmlContentType);
+                            }
+                            else {
+                                this.sendSearchResults(httpServletRequest, httpServletResponse, context, requestParameter, renderParameters, htmlContentType);
+                            }
+                        }
+                        else if (service.equals("typeahead")) {
+
+                            String prefix = "";
+                            if (httpServletRequest.getParameter("q") != null) {
+                                prefix = httpServletRequest.getParameter("q");
+                            }
+
+                            this.sendSuggestions(httpServletRequest, httpServletResponse, context, prefix);
+                        }
+                    }
+                    else {
+
+                        this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - No ResourceDiscoveryService configured");
+
+                        RequestError requestError = new RequestError();
+                        requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        requestError.setDescription("Resource Discovery Service not configured!");
+                        requestError.setError("SERVICE_UNAVAILABLE");
+
+                        httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        this.sendRequestError(httpServletResponse, context, requestError);
+                    }
+                }
+                else {
+
+                    if (this.virtualClassificationSystem != null) {
+
+                        String[] classes = httpServletRequest.getParameterValues("class");
+
+                        if (classes != null && classes.length > 1) {
+
+                            this.sendClasses(httpServletRequest, httpServletResponse, context, classes);
+                        }
+                        else if (httpServletRequest.getParameter("class") != null && !httpServletRequest.getParameter("class").equals("")) {
+
+                            if (context.getFormat().equals("html")) {
+
+                                this.sendResult(httpServletRequest, httpServletResponse, "class", "text/html;charset=UTF-8", this.virtualClassificationSystem.getClassAsHTML(httpServletRequest.getParameter("class"), context.renderParameters()), null);
+                            }
+
+                            if (context.getFormat().equals("json")) {
+
+                                this.sendResult(httpServletRequest, httpServletResponse, "class", "application/json;charset=UTF-8", this.virtualClassificationSystem.getClassAsJSON(httpServletRequest.getParameter("class")), null);
+                            }
+
+                            if (context.getFormat().equals("xml")) {
+
+                                this.sendResult(httpServletRequest, httpServletResponse, "class", "application/xml;charset=UTF-8", this.virtualClassificationSystem.getClassAsXML(httpServletRequest.getParameter("class")), null);
+                            }
+                        }
+                        else {
+
+                            httpServletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Class parameter not valid!");
+
+                            RequestError requestError = new RequestError();
+                            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+                            requestError.setDescription("Class parameter not valid!");
+                            requestError.setError("BAD_REQUEST");
+
+                            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                            this.sendRequestError(httpServletResponse, context, requestError);
+                        }
+                    }
+                    else {
+
+                        this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - No VirtualClassificationSystem configured");
+
+                        RequestError requestError = new RequestError();
+                        requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        requestError.setDescription("Virtual Classification System not configured!");
+                        requestError.setError("SERVICE_UNAVAILABLE");
+
+                        httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        this.sendRequestError(httpServletResponse, context, requestError);
+                    }
+                }
+            }
+            catch (Exception e) {
+
+                this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " Service unavailable.");
+                this.logger.error(e.getMessage(), e.getCause());
+                String stackTrace = "";
+                for (StackTraceElement stackTraceElement : e.getStackTrace()) {
+                    this.logger.error("\t" + stackTraceElement.toString());
+                    stackTrace += stackTraceElement.toString() + "\n";
+                }
+
+                httpServletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service unavailable.");
+                RequestError requestError = new RequestError();
+                requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                requestError.setDescription("Unexpected error in request: '" + httpServletRequest.getRequestURL() + "'!\n" + stackTrace);
+                requestError.setError("SERVICE_UNAVAILABLE");
+
+                httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                this.sendRequestError(httpServletResponse, context, requestError);
+            }
+        }
+
+        // asynchronous requests are recorded on completion
+        if (httpServletRequest.getAttribute(METRICS_LABELS) != null && !httpServletRequest.isAsyncStarted()) {
+            this.recordRequest(httpServletRequest);
+        }
+    }
+
+    private void sendSearchResults(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, final Properties requestParameter, final Properties renderParameters, String htmlContentType) throws IOException {
+
+        final String format = context.getFormat();
+        String contentType = this.contentType(format, htmlContentType);
+
+        if (contentType == null) {
+            return;
+        }
+
+        // conditional request answered by the version of the index
+        final String service = renderParameters.getProperty("service");
+        String etag = this.versionETag(format, requestParameter, renderParameters);
+
+        if (etag != null && this.notModified(httpServletRequest, httpServletResponse, service, etag)) {
+            return;
+        }
+
+        // getRecords without a batcher is sent from here as well, but has no next page
+        if (this.prefetchingResourceDiscoveryService != null && "search".equals(service)) {
+            this.prefetchingResourceDiscoveryService.served(format, requestParameter, renderParameters);
+        }
+
+        // cache hits are answered at once, compressed if possible
+        if (this.cachingResourceDiscoveryService != null) {
+
+            httpServletRequest.setAttribute(STALE_KEY, RequestKey.of(format, requestParameter, renderParameters));
+
+            ResponseCache.Entry entry = this.cachingResourceDiscoveryService.getCachedSearchResults(format, requestParameter, renderParameters);
+
+            if (entry != null) {
+
+                this.sendCached(httpServletRequest, httpServletResponse, service, contentType, entry, etag);
+                return;
+            }
+        }
+
+        // plugin with its own asynchronous API
+        if (this.isAsync(httpServletRequest) && !(this.asyncResourceDiscoveryService instanceof ExecutorResourceDiscoveryService)) {
+
+            AsyncContext asyncContext = this.startAsync(httpServletRequest, httpServletResponse);
+            this.asyncResourceDiscoveryService.getSearchResults(format, requestParameter, renderParameters).whenComplete(new ResponseCallback(asyncContext, context, service, contentType, etag));
+            return;
+        }
+
+        this.send(httpServletRequest, httpServletResponse, context, service, contentType, etag, new Body() {
+
+            @Override
+            public void write(Writer writer) throws RDSException, IOException {
+
+                switch (format) {
+
+                    case "html": {
+                        streamingResourceDiscoveryService.writeSearchResultsAsHTML(requestParameter, renderParameters, writer);
+                        break;
+                    }
+                    case "json": {
+                        streamingResourceDiscoveryService.writeSearchResultsAsJSON(requestParameter, writer);
+                        break;
+                    }
+                    default: {
+                        streamingResourceDiscoveryService.writeSearchResultsAsXML(requestParameter, writer);
+                    }
+                }
+            }
+        });
+    }
+
+    private void sendRecords(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, final Properties requestParameter, final Properties renderParameters, String htmlContentType) throws IOException {
+
+        final String format = context.getFormat();
+        String contentType = this.contentType(format, htmlContentType);
+
+        if (contentType == null) {
+            return;
+        }
+
+        final List<String> ids = this.recordBatcher.splitIds(requestParameter.getProperty("ids"));
+
+        // conditional request answered by the version of the index
+        String etag = this.versionETag(format, requestParameter, renderParameters);
+
+        if (etag != null && this.notModified(httpServletRequest, httpServletResponse, "getRecords", etag)) {
+            return;
+        }
+
+        // the records are rendered as a whole; an incomplete list is sent as service 'incomplete'
+        if (this.isAsync(httpServletRequest) && this.asyncResourceDiscoveryService instanceof ExecutorResourceDiscoveryService) {
+
+            AsyncContext asyncContext = this.startAsync(httpServletRequest, httpServletResponse);
+            final ResponseCallback callback = new ResponseCallback(asyncContext, context, "getRecords", contentType, etag);
+
+            ((ExecutorResourceDiscoveryService) this.asyncResourceDiscoveryService).submit(new Callable<String>() {
+
+                @Override
+                public String call() throws RDSException {
+
+                    RecordBatcher.Records records = fetchRecords(ids, requestParameter);
+
+                    if (records.isIncomplete()) {
+                        callback.incomplete();
+                    }
+
+                    return renderRecords(format, records, requestParameter, renderParameters);
+                }
+            }).whenComplete(callback);
+        }
+        else {
+
+            try {
+
+                RecordBatcher.Records records = this.fetchRecords(ids, requestParameter);
+                String result = this.renderRecords(format, records, requestParameter, renderParameters);
+
+                this.sendResult(httpServletRequest, httpServletResponse, records.isIncomplete() ? "incomplete" : "getRecords", contentType, result, etag);
+            }
+            catch (RDSException e) {
+
+                this.sendServiceUnavailable(httpServletRequest, httpServletResponse, context, contentType, e);
+            }
+        }
+    }
+
+    private RecordBatcher.Records fetchRecords(List<String> ids, Properties requestParameter) throws RDSException {
+
+        long start = System.nanoTime();
+        RecordBatcher.Records records = this.recordBatcher.getRecords(ids, requestParameter);
+        this.metrics.observe(MetricsResourceDiscoveryService.DURATION, Metrics.labels("system", "rds", "operation", "getRecords", "format", "records"), System.nanoTime() - start);
+
+        return records;
+    }
+
+    private String renderRecords(String format, RecordBatcher.Records records, Properties requestParameter, Properties renderParameters) throws RDSException {
+
+        long start = System.nanoTime();
+        String result;
+
+        switch (format) {
+
+            case "html": {
+                result = this.recordRetrievalService.getRecordsAsHTML(records.getRecords(), requestParameter, renderParameters);
+                break;
+            }
+            case "json": {
+                result = this.recordRetrievalService.getRecordsAsJSON(records.getRecords(), requestParameter);
+                break;
+            }
+            default: {
+                result = this.recordRetrievalService.getRecordsAsXML(records.getRecords(), requestParameter);
+            }
+        }
+        this.metrics.observe(RENDER_DURATION, Metrics.labels("service", "getRecords", "format", format), System.nanoTime() - start);
+
+        return result;
+    }
+
+    private String contentType(String format, String htmlContentType) {
+
+        switch (format) {
+
+            case "html": {
+                return htmlContentType;
+            }
+            case "json": {
+                return "application/json";
+            }
+            case "xml": {
+                return "application/xml";
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Streams the body into the response. On the RDS executor the response is claimed with the first write of the body;
+     * until then a timeout can still answer the request, a body arriving later is dropped.
+     */
+    private void send(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, final RequestContext context, final String service, final String contentType, final String etag, final Body body) throws IOException {
+
+        if (this.isAsync(httpServletRequest) && this.asyncResourceDiscoveryService instanceof ExecutorResourceDiscoveryService) {
+
+            final AsyncContext asyncContext = this.startAsync(httpServletRequest, httpServletResponse);
+            final ResponseCallback callback = new ResponseCallback(asyncContext, context, service, contentType, etag);
+
+            // the timeout applies until the first write: a streamed response cannot be answered by the container any more
+            asyncContext.setTimeout(0);
+
+            // the callback only answers if the body could not be written at all, e.g. if the executor is full
+            CompletableFuture<String> future = ((ExecutorResourceDiscoveryService) this.asyncResourceDiscoveryService).submit(new Callable<String>() {
+
+                @Override
+                public String call() throws IOException {
+
+                    writeBody((HttpServletRequest) asyncContext.getRequest(), (HttpServletResponse) asyncContext.getResponse(), context, service, contentType, etag, body, callback);
+                    return null;
+                }
+            });
+
+            if (this.asyncTimeout > 0) {
+                future.orTimeout(this.asyncTimeout, TimeUnit.MILLISECONDS);
+            }
+            future.whenComplete(callback);
+        }
+        else {
+
+            this.writeBody(httpServletRequest, httpServletResponse, context, service, contentType, etag, body, null);
+        }
+    }
+
+    /**
+     * @param callback the callback of an asynchronous request or null; the request is completed if the body was written
+     */
+    private void writeBody(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, String service, String contentType, String etag, Body body, ResponseCallback callback) throws IOException {
+
+        BodyWriter writer = new BodyWriter(httpServletRequest, httpServletResponse, service, contentType, etag, callback);
+
+        try {
+
+            body.write(writer);
+            writer.finish();
+        }
+        catch (RDSException e) {
+
+            if (!writer.isOpen()) {
+
+                if (callback != null) {
+                    callback.failed(e);
+                }
+                else {
+                    this.sendServiceUnavailable(httpServletRequest, httpServletResponse, context, contentType, e);
+                }
+            }
+            else if (httpServletResponse.isCommitted()) {
+
+                this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + e.getMessage() + " - response already committed");
+            }
+            else {
+
+                httpServletResponse.resetBuffer();
+                httpServletResponse.setHeader("ETag", null);
+                httpServletResponse.setHeader("Cache-Control", "no-store");
+                this.sendServiceUnavailable(httpServletRequest, httpServletResponse, context, contentType, e);
+            }
+        }
+        finally {
+
+            if (callback != null && writer.isOpen()) {
+                callback.complete();
+            }
+        }
+    }
+
+    private interface Body {
+
+        void write(Writer writer) throws RDSException, IOException;
+    }
+
+    /**
+     * Writes the body into the response. Headers and status are set with the first write; on the asynchronous path the
+     * request is claimed at the same time, a request already answered by its timeout fails the write.
+     */
+    private class BodyWriter extends Writer {
+
+        private final HttpServletRequest httpServletRequest;
+        private final HttpServletResponse httpServletResponse;
+        private final String service;
+        private final String contentType;
+        private final String etag;
+        private final ResponseCallback callback;
+
+        private Writer writer = null;
+        private ETagWriter etagWriter = null;
+
+        BodyWriter(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String service, String contentType, String etag, ResponseCallback callback) {
+
+            this.httpServletRequest = httpServletRequest;
+            this.httpServletResponse = httpServletResponse;
+            this.service = service;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.callback = callback;
+        }
+
+        boolean isOpen() {
+
+            return this.writer != null;
+        }
+
+        private Writer open() throws IOException {
+
+            if (this.writer == null) {
+
+                if (this.callback != null && !this.callback.claim()) {
+                    throw new IOException("Request already answered!");
+                }
+
+                // a matching version tag has been answered before the backend call
+                notModified(this.httpServletRequest, this.httpServletResponse, this.service, this.etag);
+
+                this.httpServletResponse.setContentType(this.contentType);
+                this.httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+
+                // the entity tag of the body is computed while streaming; it can only be sent as long as the body fits into the buffer
+                if (this.etag == null && etags) {
+                    this.httpServletResponse.setBufferSize(etagBuffer);
+                    this.etagWriter = new ETagWriter(this.httpServletResponse.getWriter());
+                    this.writer = this.etagWriter;
+                }
+                else {
+                    this.writer = this.httpServletResponse.getWriter();
+                }
+            }
+
+            return this.writer;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+
+            this.open().write(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+
+            this.open().write(string, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+
+            if (this.writer != null) {
+                this.writer.flush();
+            }
+        }
+
+        /**
+         * The response writer is not closed, it belongs to the container.
+         */
+        @Override
+        public void close() throws IOException {
+
+            this.flush();
+        }
+
+        /**
+         * Ends the body. The computed entity tag is only sent, and a matching conditional request only answered with
+         * 304, if nothing of the body has been sent yet.
+         */
+        void finish() throws IOException {
+
+            this.open();
+
+            if (this.etagWriter != null && !this.httpServletResponse.isCommitted()) {
+
+                if (notModified(this.httpServletRequest, this.httpServletResponse, this.service, this.etagWriter.getETag())) {
+
+                    this.httpServletResponse.resetBuffer();
+                    return;
+                }
+            }
+
+            this.httpServletResponse.getWriter().println();
+        }
+    }
+
+    /**
+     * Several classes in one document, e.g. for breadcrumb trails: a JSON object by notation or a 'classes' element.
+     */
+    private void sendClasses(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, String[] classes) throws IOException, VCSException {
+
+        String description = null;
+
+        if (context.getFormat().equals("html")) {
+            description = "Several classes are only available as JSON or XML!";
+        }
+        else if (classes.length > this.maxClasses) {
+            description = "Not more than " + this.maxClasses + " classes per request!";
+        }
+        else if (Arrays.asList(classes).contains("")) {
+            description = "Class parameter not valid!";
+        }
+
+        if (description != null) {
+
+            RequestError requestError = new RequestError();
+            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
+            requestError.setDescription(description);
+            requestError.setError("BAD REQUEST");
+
+            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            this.sendRequestError(httpServletResponse, context, requestError);
+            return;
+        }
+
+        if (context.getFormat().equals("json")) {
+
+            String result = ClassBatch.toJSON(ClassBatch.getClassesAsJSON(this.virtualClassificationSystem, Arrays.asList(classes)));
+            this.sendResult(httpServletRequest, httpServletResponse, "class", "application/json;charset=UTF-8", result, null);
+        }
+        else {
+
+            String result = ClassBatch.toXML(ClassBatch.getClassesAsXML(this.virtualClassificationSystem, Arrays.asList(classes)));
+            this.sendResult(httpServletRequest, httpServletResponse, "class", "application/xml;charset=UTF-8", result, null);
+        }
+    }
+
+    private void sendSuggestions(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, String prefix) throws IOException {
+
+        httpServletResponse.setHeader("Access-Control-Allow-Origin", "*");
+
+        // local completions first, the RDS only for cold prefixes
+        if (this.suggestionEngine != null) {
+
+            String suggestions = this.suggestionEngine.getSuggestions(prefix);
+
+            if (suggestions != null) {
+
+                this.sendResult(httpServletRequest, httpServletResponse, "typeahead", "application/json;charset=utf-8", suggestions, null);
+                return;
+            }
+        }
+
+        if (this.cachingResourceDiscoveryService != null) {
+            httpServletRequest.setAttribute(STALE_KEY, RequestKey.ofSuggestions(prefix));
+        }
+
+        if (this.isAsync(httpServletRequest)) {
+
+            AsyncContext asyncContext = this.startAsync(httpServletRequest, httpServletResponse);
+            this.asyncResourceDiscoveryService.getSuggestionsAsync(prefix).whenComplete(new ResponseCallback(asyncContext, context, "typeahead", "application/json;charset=utf-8", null));
+        }
+        else {
+
+            try {
+
+                this.sendResult(httpServletRequest, httpServletResponse, "typeahead", "application/json;charset=utf-8", this.resourceDiscoveryService.getSuggestions(prefix), null);
+            }
+            catch (RDSException e) {
+
+                this.sendServiceUnavailable(httpServletRequest, httpServletResponse, context, "application/json;charset=utf-8", e);
+            }
+        }
+    }
+
+    private void sendResult(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String service, String contentType, String result, String etag) throws IOException {
+
+        // incomplete results must not be revalidated
+        if (service.equals("incomplete")) {
+
+            httpServletResponse.setHeader("ETag", null);
+            etag = null;
+        }
+        else if (etag == null && this.etags && result != null) {
+            etag = ETag.of(result);
+        }
+
+        if (this.notModified(httpServletRequest, httpServletResponse, service, etag)) {
+            return;
+        }
+
+        httpServletResponse.setContentType(contentType);
+        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+        httpServletResponse.getWriter().println(result);
+    }
+
+    private void sendCached(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String service, String contentType, ResponseCache.Entry entry, String etag) throws IOException {
+
+        if (etag == null && this.etags) {
+            etag = entry.getETag();
+        }
+
+        byte[] gzip = entry.getGzip();
 
-        // analyse ip range
-        String ips = httpServletRequest.getHeader("X-Forwarded-For");
+        if (gzip == null || !acceptsGzip(httpServletRequest.getHeader("Accept-Encoding"))) {
 
-        this.isTUintern = this.analyseAccessRights(ips, config.getProperty("service.iprange.tu"), config.getProperty("service.iprange.tu.exceptions"));
-        this.isUBintern = this.analyseAccessRights(ips, config.getProperty("service.iprange.ub"), config.getProperty("service.iprange.ub.exceptions"));
+            this.sendResult(httpServletRequest, httpServletResponse, service, contentType, entry.getContent(), etag);
+            return;
+        }
 
-        this.logger.debug("[" + this.config.getProperty("service.name") + "] " + "Where is it from? " + httpServletRequest.getHeader("X-Forwarded-For") + ", " + isTUintern + ", " + isUBintern);
+        // a strong entity tag differs between the encodings
+        httpServletResponse.setHeader("Vary", "Accept-Encoding");
 
-        // format
-        this.format = "html";
+        if (this.notModified(httpServletRequest, httpServletResponse, service, etag == null ? null : etag.substring(0, etag.length() - 1) + "--gzip\"")) {
+            return;
+        }
 
-        if (httpServletRequest.getParameter("format") != null && !httpServletRequest.getParameter("format").equals("")) {
+        httpServletResponse.setContentType(contentType);
+        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
+        httpServletResponse.setHeader("Content-Encoding", "gzip");
+        httpServletResponse.setContentLength(gzip.length);
+        httpServletResponse.getOutputStream().write(gzip);
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
 
-            this.format = httpServletRequest.getParameter("format");
+        if (acceptEncoding == null) {
+            return false;
         }
-        else {
 
-            Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
-            while ( headerNames.hasMoreElements() ) {
-                String headerNameKey = headerNames.nextElement();
+        for (String coding : acceptEncoding.split(",")) {
 
-                if (headerNameKey.equals("Accept")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
 
-                    this.logger.debug("headerNameKey = " + httpServletRequest.getHeader( headerNameKey ));
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
 
-                    if (httpServletRequest.getHeader( headerNameKey ).contains("text/html")) {
-                        this.format = "html";
-                    }
-                    else if (httpServletRequest.getHeader( headerNameKey ).contains("application/xml")) {
-                        this.format = "xml";
-                    }
-                    else if (httpServletRequest.getHeader( headerNameKey ).contains("application/json")) {
-                        this.format = "json";
+                for (int i = 1; i < parts.length; i++) {
+
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=") && parameter.substring(2).matches("0(\\.0*)?")) {
+                        return false;
                     }
                 }
-                if (headerNameKey.equals("Accept-Language")) {
-                    this.language = httpServletRequest.getHeader( headerNameKey );
-                    this.logger.debug("[" + config.getProperty("service.name") + "] " + "Accept-Language: " + this.language);
-                }
+                return true;
             }
         }
 
-        this.logger.info("format = " + this.format);
+        return false;
+    }
 
-        // language
-        if (this.language != null && this.language.startsWith("de")) {
-            this.language = "de";
-        } else if (this.language != null && this.language.startsWith("en")) {
-            this.language = "en";
-        } else if (httpServletRequest.getParameter("l") != null) {
-            this.language = httpServletRequest.getParameter("l");
-        } else {
-            this.language = "de";
-        }
+    /**
+     * Sets 'Cache-Control' and 'ETag' of the service.
+     *
+     * @return true if the client already has the current version and has been answered with 304
+     */
+    private boolean notModified(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String service, String etag) {
 
-        this.logger.info("language = " + this.language);
+        String cacheControl = this.cacheControl.get(service);
 
-        // Debugging
-        boolean debug = false;
+        if (cacheControl != null && !cacheControl.isEmpty()) {
+            httpServletResponse.setHeader("Cache-Control", cacheControl);
+        }
 
-        if (httpServletRequest.getParameter("debug") != null && httpServletRequest.getParameter("debug").equals("1")) {
-            debug = true;
+        if (etag == null) {
+            return false;
         }
 
-        // is service valid?
-        if (!service.equals("search") && !service.equals("typeahead") && !service.equals("getRecords") && !service.equals("api")) {
+        httpServletResponse.setHeader("ETag", etag);
 
-            RequestError requestError = new RequestError();
-            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
-            requestError.setDescription("The service '" + path + "' is not implemented.");
-            requestError.setError("BAD REQUEST");
+        if (ETag.matches(httpServletRequest.getHeader("If-None-Match"), etag)) {
 
-            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            this.sendRequestError(httpServletResponse, requestError);
+            httpServletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
         }
-        else if (!service.equals("typeahead") && !this.format.equals("html") && !isUBintern) {
-
-            RequestError requestError = new RequestError();
-            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
-            requestError.setDescription("You are not allowed to request results in '" + this.format + "'!");
-            requestError.setError("BAD REQUEST");
 
-            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            this.sendRequestError(httpServletResponse, requestError);
-        }
-        else if (service.equals("typeahead") && !this.format.equals("json")) {
+        return false;
+    }
 
-            RequestError requestError = new RequestError();
-            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
-            requestError.setDescription("Service 'typeahead' does not support format '" + this.format + "'!");
-            requestError.setError("BAD REQUEST");
+    /**
+     * @return the entity tag derived from the version of the index or null if the plugin does not provide a version
+     */
+    private String versionETag(String format, Properties requestParameter, Properties renderParameters) {
 
-            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            this.sendRequestError(httpServletResponse, requestError);
+        if (this.versionedResourceDiscoveryService == null || !this.etags) {
+            return null;
         }
-        else {
 
-            try {
+        String version = this.versionedResourceDiscoveryService.getVersion();
 
-                if (service.equals("search") || service.equals("getRecords") || service.equals("typeahead")) {
+        return version == null ? null : ETag.of(version, RequestKey.of(format, requestParameter, renderParameters));
+    }
 
-                    // Query
-                    Properties requestParameter = this.handleRequestParameters(httpServletRequest);
-                    requestParameter.setProperty("lang", this.language);
+    /**
+     * Answers with the last cached result of the request if there is one, otherwise with 503.
+     */
+    private void sendServiceUnavailable(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, RequestContext context, String contentType, RDSException e) {
 
-                    // Resource Discovery Service API
-                    if (Lookup.lookupAll(ResourceDiscoveryService.class).size() > 0) {
+        Object staleKey = httpServletRequest.getAttribute(STALE_KEY);
 
-                        ResourceDiscoveryService resourceDiscoveryService = Lookup.lookup(ResourceDiscoveryService.class);
-                        // init ResourceDiscoveryService
-                        resourceDiscoveryService.init(this.config);
+        if (staleKey != null) {
 
-                        if (service.equals("search")) {
+            ResponseCache.Entry entry = this.cachingResourceDiscoveryService.getStale((String) staleKey);
 
-                            if (requestParameter.getProperty("q").equals("") || requestParameter.getProperty("q").equals("*") || requestParameter.getProperty("q").equals("*:*") ||
-                                    (!requestParameter.getProperty("rows").equals("") && Integer.parseInt(requestParameter.getProperty("rows")) > 50) ||
-                                    (!requestParameter.getProperty("start").equals("") && Integer.parseInt(requestParameter.getProperty("start")) > 20)) {
+            if (entry != null) {
 
-                                RequestError requestError = new RequestError();
-                                requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
-                                requestError.setDescription("Malformed request!");
-                                requestError.setError("BAD REQUEST");
+                this.logger.warn("[" + this.config.getProperty("service.name") + "] " + "Serving stale result: " + e.getMessage());
 
-                                httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                                this.sendRequestError(httpServletResponse, requestError);
-                            }
-                            else {
-                                // Query
-                                try {
+                httpServletResponse.setHeader("Warning", "110 - \"Response is Stale\"");
 
-                                    if (this.format.equals("html")) {
+                // the writer may be in use already, so not the compressed entry
+                try {
+                    this.sendResult(httpServletRequest, httpServletResponse, "stale", contentType, entry.getContent(), this.etags ? entry.getETag() : null);
+                    return;
+                }
+                catch (IOException ioe) {
 
-                                        Properties renderParameters = new Properties();
-                                        renderParameters.setProperty("lang", this.language);
-                                        renderParameters.setProperty("service", service);
-                                        renderParameters.setProperty("isTUintern", Boolean.toString(this.isTUintern));
-                                        renderParameters.setProperty("isUBintern", Boolean.toString(this.isUBintern));
-                                        renderParameters.setProperty("debug", Boolean.toString(debug));
+                    this.logger.error("[" + this.config.getProperty("service.name") + "] " + "Error while writing the response: " + ioe.getMessage());
+                    return;
+                }
+            }
+        }
 
-                                        String mode = "";
-                                        if (httpServletRequest.getParameter("mode") != null) {
+        this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - " + e.getMessage());
 
-                                            mode = httpServletRequest.getParameter("mode");
-                                        }
-                                        renderParameters.setProperty("mode", mode);
+        RequestError requestError = new RequestError();
+        requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        requestError.setDescription(e.getMessage());
+        requestError.setError("SERVICE_UNAVAILABLE");
 
-                                        httpServletResponse.setContentType("text/html;charset=UTF-8");
-                                        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                        httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsHTML(requestParameter, renderParameters));
-                                    }
+        httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        this.sendRequestError(httpServletResponse, context, requestError);
+    }
 
-                                    if (this.format.equals("json")) {
+    private boolean isAsync(HttpServletRequest httpServletRequest) {
 
-                                        httpServletResponse.setContentType("application/json");
-                                        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                        httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsJSON(requestParameter));
-                                    }
+        return this.asyncResourceDiscoveryService != null && httpServletRequest.isAsyncSupported();
+    }
 
-                                    if (this.format.equals("xml")) {
+    private AsyncContext startAsync(final HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) {
 
-                                        httpServletResponse.setContentType("application/xml");
-                                        httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                        httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsXML(requestParameter));
-                                    }
-                                }
-                                catch (RDSException e) {
+        AsyncContext asyncContext = httpServletRequest.startAsync(httpServletRequest, httpServletResponse);
+        asyncContext.setTimeout(this.asyncTimeout);
 
-                                    this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - " + e.getMessage());
+        asyncContext.addListener(new AsyncListener() {
 
-                                    RequestError requestError = new RequestError();
-                                    requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                    requestError.setDescription(e.getMessage());
-                                    requestError.setError("SERVICE_UNAVAILABLE");
+            @Override
+            public void onComplete(AsyncEvent asyncEvent) throws IOException {
+                recordRequest(httpServletRequest);
+            }
 
-                                    httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                    this.sendRequestError(httpServletResponse, requestError);
-                                }
-                            }
-                        }
-                        else if (service.equals("getRecords")) {
+            @Override
+            public void onTimeout(AsyncEvent asyncEvent) throws IOException {
+            }
 
-                            String institution_param = "";
-                            if (httpServletRequest.getQueryString().contains("fq=Institution")) {
+            @Override
+            public void onError(AsyncEvent asyncEvent) throws IOException {
+            }
 
-                                for (String r : httpServletRequest.getParameterMap().keySet()) {
+            @Override
+            public void onStartAsync(AsyncEvent asyncEvent) throws IOException {
+            }
+        });
 
-                                    if (r.equals("fq") && httpServletRequest.getParameter(r).startsWith("Institution")) {
-                                        institution_param = "&fq=" + httpServletRequest.getParameter(r);
-                                        break;
-                                    }
-                                }
-                                this.logger.debug("[" + this.config.getProperty("service.name") + "] " + "institution_param: " + institution_param);
-                            }
+        return asyncContext;
+    }
 
-                            try {
+    private void recordRequest(HttpServletRequest httpServletRequest) {
 
-                                if (this.format.equals("html")) {
+        Object start = httpServletRequest.getAttribute(METRICS_START);
+        Object labels = httpServletRequest.getAttribute(METRICS_LABELS);
 
-                                    httpServletResponse.setContentType("text/html;charset=UTF-8");
+        if (start != null && labels != null) {
+            this.metrics.observe(REQUEST_DURATION, (String) labels, System.nanoTime() - (Long) start);
+        }
+    }
 
-                                    Properties renderParameters = new Properties();
-                                    renderParameters.setProperty("lang", this.language);
-                                    renderParameters.setProperty("service", service);
-                                    renderParameters.setProperty("isTUintern", Boolean.toString(this.isTUintern));
-                                    renderParameters.setProperty("isUBintern", Boolean.toString(this.isUBintern));
-                                    renderParameters.setProperty("debug", Boolean.toString(debug));
+    /**
+     * Writes the result of an asynchronous RDS call and completes the request. Whatever comes first - result, failure
+     * or timeout - answers the request.
+     */
+    private class ResponseCallback implements BiConsumer<String, Throwable>, AsyncListener {
 
-                                    renderParameters.setProperty("recordset", institution_param);
+        private final AsyncContext asyncContext;
+        private final RequestContext context;
+        private volatile String service;
+        private final String contentType;
+        private final String etag;
+        private final AtomicBoolean done = new AtomicBoolean(false);
 
-                                    String mode = "";
-                                    if (httpServletRequest.getParameter("mode") != null) {
+        ResponseCallback(AsyncContext asyncContext, RequestContext context, String service, String contentType, String etag) {
 
-                                        mode = httpServletRequest.getParameter("mode");
-                                    }
-                                    renderParameters.setProperty("mode", mode);
-                                    if (mode.equals("simplehit")) {
+            this.asyncContext = asyncContext;
+            this.context = context;
+            this.service = service;
+            this.contentType = contentType;
+            this.etag = etag;
 
-                                        renderParameters.setProperty("getRecordsBaseURL", httpServletRequest.getRequestURL().toString() + "?ids=");
-                                    }
+            asyncContext.addListener(this);
+        }
 
-                                    if (mode.equals("embedded") || mode.equals("simplehit")) {
+        /**
+         * @return true if the caller may answer the request
+         */
+        boolean claim() {
 
-                                        httpServletResponse.setContentType("text/xml");
-                                    }
+            return this.done.compareAndSet(false, true);
+        }
 
-                                    httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                    httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsHTML(requestParameter, renderParameters));
-                                }
+        /**
+         * Parts of the result are missing: it is sent as service 'incomplete', which clients must not store.
+         */
+        void incomplete() {
 
-                                if (this.format.equals("json")) {
+            this.service = "incomplete";
+        }
 
-                                    httpServletResponse.setContentType("application/json");
-                                    httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                    httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsJSON(requestParameter));
-                                }
+        @Override
+        public void accept(String result, Throwable throwable) {
 
-                                if (this.format.equals("xml")) {
+            if (throwable == null) {
+                this.completed(result);
+                return;
+            }
 
-                                    httpServletResponse.setContentType("application/xml");
-                                    httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                    httpServletResponse.getWriter().println(resourceDiscoveryService.getSearchResultsAsXML(requestParameter));
-                                }
-                            }
-                            catch (RDSException e) {
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
 
-                                this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - " + e.getMessage());
+            if (throwable instanceof TimeoutException) {
+                throwable = new RDSException("Timeout after " + asyncTimeout + " ms!");
+            }
 
-                                RequestError requestError = new RequestError();
-                                requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                requestError.setDescription(e.getMessage());
-                                requestError.setError("SERVICE_UNAVAILABLE");
+            this.failed(throwable instanceof RDSException ? (RDSException) throwable : new RDSException(throwable.getMessage(), throwable));
+        }
 
-                                httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                this.sendRequestError(httpServletResponse, requestError);
-                            }
-                        }
-                        else if (service.equals("typeahead")) {
+        void completed(String result) {
 
-                            String prefix = "";
-                            if (httpServletRequest.getParameter("q") != null) {
-                                prefix = httpServletRequest.getParameter("q");
-                            }
+            if (this.claim()) {
 
-                            try {
+                try {
+                    sendResult((HttpServletRequest) this.asyncContext.getRequest(), (HttpServletResponse) this.asyncContext.getResponse(), this.service, this.contentType, result, this.etag);
+                }
+                catch (IOException e) {
+                    logger.error("[" + config.getProperty("service.name") + "] " + "Error while writing the response: " + e.getMessage());
+                }
+                finally {
+                    this.asyncContext.complete();
+                }
+            }
+        }
 
-                                String json = resourceDiscoveryService.getSuggestions(prefix);
+        void complete() {
 
-                                httpServletResponse.setHeader("Access-Control-Allow-Origin", "*");
-                                httpServletResponse.setContentType("application/json;charset=utf-8");
-                                httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                httpServletResponse.getWriter().println(json);
-                            }
-                            catch (RDSException e) {
+            this.asyncContext.complete();
+        }
 
-                                this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - " + e.getMessage());
+        void failed(RDSException e) {
 
-                                RequestError requestError = new RequestError();
-                                requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                requestError.setDescription(e.getMessage());
-                                requestError.setError("SERVICE_UNAVAILABLE");
+            if (this.claim()) {
 
-                                httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                                this.sendRequestError(httpServletResponse, requestError);
-                            }
-                        }
-                    }
-                    else {
+                try {
+                    sendServiceUnavailable((HttpServletRequest) this.asyncContext.getRequest(), (HttpServletResponse) this.asyncContext.getResponse(), this.context, this.contentType, e);
+                }
+                finally {
+                    this.asyncContext.complete();
+                }
+            }
+        }
 
-                        this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - No ResourceDiscoveryService configured");
+        @Override
+        public void onTimeout(AsyncEvent asyncEvent) throws IOException {
 
-                        RequestError requestError = new RequestError();
-                        requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                        requestError.setDescription("Resource Discovery Service not configured!");
-                        requestError.setError("SERVICE_UNAVAILABLE");
+            this.failed(new RDSException("Timeout after " + asyncTimeout + " ms!"));
+        }
 
-                        httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                        this.sendRequestError(httpServletResponse, requestError);
-                    }
-                }
-                else {
+        @Override
+        public void onError(AsyncEvent asyncEvent) throws IOException {
 
-                    if (Lookup.lookupAll(VirtualClassificationSystem.class).size() > 0) {
+            if (this.claim()) {
 
-                        if (httpServletRequest.getParameter("class") != null && !httpServletRequest.getParameter("class").equals("")) {
+                logger.error("[" + config.getProperty("service.name") + "] " + "Error in asynchronous request: " + asyncEvent.getThrowable());
+                this.asyncContext.complete();
+            }
+        }
 
-                            VirtualClassificationSystem virtualClassificationSystem = Lookup.lookup(VirtualClassificationSystem.class);
-                            // init VirtualClassificationSystem
-                            virtualClassificationSystem.init(this.config);
+        @Override
+        public void onComplete(AsyncEvent asyncEvent) throws IOException {
+        }
 
-                            if (this.format.equals("html")) {
+        @Override
+        public void onStartAsync(AsyncEvent asyncEvent) throws IOException {
+        }
+    }
 
-                                Properties renderParameters = new Properties();
-                                renderParameters.setProperty("lang", this.language);
-                                renderParameters.setProperty("isTUintern", Boolean.toString(this.isTUintern));
-                                renderParameters.setProperty("isUBintern", Boolean.toString(this.isUBintern));
-                                renderParameters.setProperty("debug", Boolean.toString(debug));
+    /**
+     * Negotiates format and language and analyses the access rights of the request.
+     */
+    RequestContext analyseRequest(HttpServletRequest httpServletRequest) {
 
-                                httpServletResponse.setContentType("text/html;charset=UTF-8");
-                                httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                httpServletResponse.getWriter().println(virtualClassificationSystem.getClassAsHTML(httpServletRequest.getParameter("class"), renderParameters));
-                            }
+        // analyse ip range
+        String ips = httpServletRequest.getHeader("X-Forwarded-For");
 
-                            if (this.format.equals("json")) {
+        long accessGroups = this.analyseAccessRights(ips);
 
-                                httpServletResponse.setContentType("application/json;charset=UTF-8");
-                                httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                httpServletResponse.getWriter().println(virtualClassificationSystem.getClassAsJSON(httpServletRequest.getParameter("class")));
-                            }
+        boolean isTUintern = IpRangeMatcher.isMember(accessGroups, this.accessGroupTU);
+        boolean isUBintern = IpRangeMatcher.isMember(accessGroups, this.accessGroupUB);
 
-                            if (this.format.equals("xml")) {
+        this.logger.debug("[" + this.config.getProperty("service.name") + "] " + "Where is it from? " + ips + ", " + isTUintern + ", " + isUBintern);
 
-                                httpServletResponse.setContentType("application/xml;charset=UTF-8");
-                                httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                                httpServletResponse.getWriter().println(virtualClassificationSystem.getClassAsXML(httpServletRequest.getParameter("class")));
-                            }
-                        }
-                        else {
+        // format
+        String format = "html";
 
-                            httpServletResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Class parameter not valid!");
+        if (httpServletRequest.getParameter("format") != null && !httpServletRequest.getParameter("format").equals("")) {
 
-                            RequestError requestError = new RequestError();
-                            requestError.setCode(HttpServletResponse.SC_BAD_REQUEST);
-                            requestError.setDescription("Class parameter not valid!");
-                            requestError.setError("BAD_REQUEST");
+            format = httpServletRequest.getParameter("format");
+        }
+        else {
 
-                            httpServletResponse.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                            this.sendRequestError(httpServletResponse, requestError);
-                        }
-                    }
-                    else {
+            Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
+            while ( headerNames.hasMoreElements() ) {
+                String headerNameKey = headerNames.nextElement();
 
-                        this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " - No VirtualClassificationSystem configured");
+                if (headerNameKey.equals("Accept")) {
 
-                        RequestError requestError = new RequestError();
-                        requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                        requestError.setDescription("Virtual Classification System not configured!");
-                        requestError.setError("SERVICE_UNAVAILABLE");
+                    this.logger.debug("headerNameKey = " + httpServletRequest.getHeader( headerNameKey ));
 
-                        httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                        this.sendRequestError(httpServletResponse, requestError);
+                    if (httpServletRequest.getHeader( headerNameKey ).contains("text/html")) {
+                        format = "html";
+                    }
+                    else if (httpServletRequest.getHeader( headerNameKey ).contains("application/xml")) {
+                        format = "xml";
+                    }
+                    else if (httpServletRequest.getHeader( headerNameKey ).contains("application/json")) {
+                        format = "json";
                     }
                 }
             }
-            catch (Exception e) {
-
-                this.logger.error("[" + this.config.getProperty("service.name") + "] Exception: " + HttpServletResponse.SC_SERVICE_UNAVAILABLE + " Service unavailable.");
-                this.logger.error(e.getMessage(), e.getCause());
-                String stackTrace = "";
-                for (StackTraceElement stackTraceElement : e.getStackTrace()) {
-                    this.logger.error("\t" + stackTraceElement.toString());
-                    stackTrace += stackTraceElement.toString() + "\n";
-                }
-
-                httpServletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service unavailable.");
-                RequestError requestError = new RequestError();
-                requestError.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                requestError.setDescription("Unexpected error in request: '" + httpServletRequest.getRequestURL() + "'!\n" + stackTrace);
-                requestError.setError("SERVICE_UNAVAILABLE");
-
-                httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-                this.sendRequestError(httpServletResponse, requestError);
-            }
         }
-    }
-
-    private boolean analyseAccessRights(String ips, String iprange, String ipexceptions) {
-
-        boolean allowed = false;
 
-        try {
-            if (ips != null) {
-
-                String tmp[] = ips.split(", ");
-                String ip = tmp[tmp.length - 1];
+        this.logger.info("format = " + format);
 
-                String[] ranges = iprange.split("\\|");
-                for (String range : ranges) {
+        // language
+        String language = httpServletRequest.getHeader("Accept-Language");
+        this.logger.debug("[" + config.getProperty("service.name") + "] " + "Accept-Language: " + language);
 
-                    if (ip.matches(range)) {
+        if (language != null && language.startsWith("de")) {
+            language = "de";
+        } else if (language != null && language.startsWith("en")) {
+            language = "en";
+        } else if (httpServletRequest.getParameter("l") != null) {
+            language = httpServletRequest.getParameter("l");
+        } else {
+            language = "de";
+        }
 
-                        allowed = true;
-                        break;
-                    }
-                }
+        this.logger.info("language = " + language);
 
-                String[] exceptions = ipexceptions.split("\\|");
-                if (allowed) {
+        // Debugging
+        boolean debug = false;
 
-                    for (String exception : exceptions) {
+        if (httpServletRequest.getParameter("debug") != null && httpServletRequest.getParameter("debug").equals("1")) {
+            debug = true;
+        }
 
-                        if (ip.matches(exception)) {
+        return new RequestContext(format, language, isTUintern, isUBintern, debug);
+    }
 
-                            allowed = false;
-                            break;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
+    /**
+     * @param ips value of the header 'X-Forwarded-For'; the last entry is the client
+     * @return the access groups of the client
+     */
+    long analyseAccessRights(String ips) {
 
-            this.logger.error(e.getMessage(), e.getCause());
+        if (ips == null) {
+            return 0;
         }
 
-        return allowed;
+        int separator = ips.lastIndexOf(',');
+
+        return this.ipRangeMatcher.classify(separator < 0 ? ips : ips.substring(separator + 1));
     }
 
-    private Properties handleRequestParameters(HttpServletRequest httpServletRequest) {
+    Properties handleRequestParameters(HttpServletRequest httpServletRequest) {
 
         String q = "";
         if (httpServletRequest.getParameter("q") != null) {
@@ -647,46 +1914,49 @@ public class CatalogPlusEndpoint extends HttpServlet {
         return requestParameter;
     }
 
-    private void sendRequestError(HttpServletResponse httpServletResponse, RequestError requestError) {
+    private void sendRequestError(HttpServletResponse httpServletResponse, RequestContext context, RequestError requestError) {
 
-        if (requestError.getCode() == HttpServletResponse.SC_SERVICE_UNAVAILABLE || requestError.getCode() == HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
-
-            try {
+        String format = context.getFormat();
 
-                Mailer mailer = new Mailer(this.config.getProperty("service.mailer.conf"));
-                mailer.postMail("[" + this.config.getProperty("service.name") + "] Exception: " + requestError.getCode() + " Service unavailable.", requestError.getDescription());
+        this.metrics.increment(ERRORS, Metrics.labels("code", Integer.toString(requestError.getCode())));
+        long start = System.nanoTime();
 
-            } catch (MessagingException | IOException e1) {
+        if (requestError.getCode() == HttpServletResponse.SC_SERVICE_UNAVAILABLE || requestError.getCode() == HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
 
-                this.logger.error(e1.getMessage(), e1.getCause());
+            if (this.alertMailer != null) {
+                this.alertMailer.alert("[" + this.config.getProperty("service.name") + "] Exception: " + requestError.getCode() + " Service unavailable.", requestError.getDescription());
             }
         }
 
-        ObjectMapper mapper = new ObjectMapper();
-
         httpServletResponse.setHeader("WWW-Authentificate", "Bearer");
         httpServletResponse.setHeader("WWW-Authentificate", "Bearer realm=\"PAIA auth\"");
         httpServletResponse.setContentType("application/json");
 
         try {
 
-            if (this.format.equals("html")) {
+            if (format.equals("html")) {
 
-                if (Lookup.lookupAll(ObjectToHtmlTransformation.class).size() > 0) {
+                if (this.providerRegistry.isAvailable(ObjectToHtmlTransformation.class)) {
 
                     try {
-                        ObjectToHtmlTransformation htmlTransformation = Lookup.lookup(ObjectToHtmlTransformation.class);
-                        // init transformator
-                        htmlTransformation.init(this.config);
+                        ObjectToHtmlTransformation htmlTransformation = this.providerRegistry.get(ObjectToHtmlTransformation.class);
 
                         Properties parameters = new Properties();
-                        parameters.setProperty("lang", this.language);
-                        parameters.setProperty("isTUintern", Boolean.toString(isTUintern));
-                        parameters.setProperty("isUBintern", Boolean.toString(isUBintern));
+                        parameters.setProperty("lang", context.getLanguage());
+                        parameters.setProperty("isTUintern", Boolean.toString(context.isTUintern()));
+                        parameters.setProperty("isUBintern", Boolean.toString(context.isUBintern()));
 
                         httpServletResponse.setContentType("text/html;charset=UTF-8");
                         httpServletResponse.setStatus(HttpServletResponse.SC_OK);
-                        httpServletResponse.getWriter().println(htmlTransformation.transform(requestError, parameters));
+
+                        if (htmlTransformation instanceof StreamingObjectToHtmlTransformation) {
+
+                            ((StreamingObjectToHtmlTransformation) htmlTransformation).transform(requestError, parameters, httpServletResponse.getWriter());
+                            httpServletResponse.getWriter().println();
+                        }
+                        else {
+                            httpServletResponse.getWriter().println(htmlTransformation.transform(requestError, parameters));
+                        }
                     }
                     catch (TransformationException e) {
                         httpServletResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal Server Error: Error while rendering a HTML message.");
@@ -694,22 +1964,25 @@ public class CatalogPlusEndpoint extends HttpServlet {
                 }
                 else {
                     this.logger.error("ObjectToHtmlTransformation not configured! Switch to JSON.");
-                    this.format = "json";
+                    format = "json";
                 }
             }
 
             // XML-Ausgabe mit JAXB
-            if (this.format.equals("xml")) {
+            if (format.equals("xml")) {
 
                 try {
 
-                    JAXBContext context = JAXBContext.newInstance(RequestError.class);
-                    Marshaller m = context.createMarshaller();
-                    m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-
                     // Write to HttpResponse
                     httpServletResponse.setContentType("application/xml;charset=UTF-8");
-                    m.marshal(requestError, httpServletResponse.getWriter());
+
+                    String errorBody = this.errorBodies.get(errorBodyKey(format, requestError));
+                    if (errorBody != null) {
+                        httpServletResponse.getWriter().write(errorBody);
+                    }
+                    else {
+                        this.serializer.writeXML(requestError, httpServletResponse.getWriter());
+                    }
                 } catch (JAXBException e) {
                     this.logger.error(e.getMessage(), e.getCause());
                     httpServletResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal Server Error: Error while rendering the results.");
@@ -717,15 +1990,24 @@ public class CatalogPlusEndpoint extends HttpServlet {
             }
 
             // JSON-Ausgabe mit Jackson
-            if (this.format.equals("json")) {
+            if (format.equals("json")) {
 
                 httpServletResponse.setContentType("application/json;charset=UTF-8");
-                mapper.writeValue(httpServletResponse.getWriter(), requestError);
+
+                String errorBody = this.errorBodies.get(errorBodyKey(format, requestError));
+                if (errorBody != null) {
+                    httpServletResponse.getWriter().write(errorBody);
+                }
+                else {
+                    this.serializer.writeJSON(requestError, httpServletResponse.getWriter());
+                }
             }
         }
         catch (Exception e) {
 
             e.printStackTrace();
         }
+
+        this.metrics.observe(RENDER_DURATION, Metrics.labels("service", "error", "format", format), System.nanoTime() - start);
     }
 }
@@ -24,14 +24,25 @@ SOFTWARE.
 
 package de.tu_dortmund.ub.service.catalogplus;
 
+import de.tu_dortmund.ub.util.impl.Metrics;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.eclipse.jetty.ee8.servlet.DefaultServlet;
+import org.eclipse.jetty.ee8.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee8.servlet.ServletHolder;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.servlet.DefaultServlet;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 public class CatalogPlusService {
@@ -74,25 +85,200 @@ public class CatalogPlusService {
             logger.info("[" + config.getProperty("service.name") + "] " + "conf-file = " + conffile);
             logger.info("[" + config.getProperty("service.name") + "] " + "log4j-conf-file = " + config.getProperty("service.log4j-conf"));
 
-            // Server
-            Server server = new Server(new Integer(config.getProperty("service.port")));
+            Server server = createServer(conffile, config);
 
-            ServletContextHandler context = new ServletContextHandler();
+            // stop on SIGTERM, so that the readiness endpoint reports the shutdown
+            server.setStopAtShutdown(true);
 
-            ServletHolder holderHome = new ServletHolder("static-home", DefaultServlet.class);
-            holderHome.setInitParameter("resourceBase", config.getProperty("service.resourceBase"));
-            context.addServlet(holderHome,"/*");
+            start(server);
+            server.join();
+        }
+        else {
+            System.out.println("USAGE: java CatalogPlusService <conffile>");
+        }
+    }
 
-            context.setContextPath(config.getProperty("service.contextPath"));
-            server.setHandler(context);
+    /**
+     * Builds the server with the CatalogPlus endpoint; the plugins are initialized on start.
+     */
+    public static Server createServer(String conffile, Properties config) throws IOException {
 
-            context.addServlet(new ServletHolder(new CatalogPlusEndpoint(conffile)), config.getProperty("service.endpoint.catalogplus") + "/*");
+        Logger logger = Logger.getLogger(CatalogPlusService.class.getName());
 
-            server.start();
-            server.join();
+        // Server
+        QueuedThreadPool threadPool = new QueuedThreadPool(Integer.parseInt(config.getProperty("service.threads.max", "200")));
+
+        // blocking request handling on virtual threads, selectors and acceptors stay on the pool
+        if (Boolean.parseBoolean(config.getProperty("service.threads.virtual", "false"))) {
+
+            threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            logger.info("[" + config.getProperty("service.name") + "] " + "Request handling on virtual threads");
+        }
+
+        Server server = new Server(threadPool);
+
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(Integer.parseInt(config.getProperty("service.port")));
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+
+        ServletHolder holderHome = new ServletHolder("static-home", DefaultServlet.class);
+        holderHome.setInitParameter("resourceBase", config.getProperty("service.resourceBase"));
+        context.addServlet(holderHome,"/*");
+
+        context.setContextPath(config.getProperty("service.contextPath"));
+
+        // compression of the responses
+        if (Boolean.parseBoolean(config.getProperty("service.compression", "true"))) {
+
+            GzipHandler gzipHandler = new GzipHandler();
+            gzipHandler.setMinGzipSize(Integer.parseInt(config.getProperty("service.compression.minsize", "1024")));
+            gzipHandler.setIncludedMimeTypes("text/html", "text/xml", "text/plain", "application/xml", "application/json");
+            gzipHandler.setHandler(context);
+            server.setHandler(gzipHandler);
         }
         else {
-            System.out.println("USAGE: java CatalogPlusService <conffile>");
+            server.setHandler(context);
+        }
+
+        // init plugins on startup, not with the first request
+        CatalogPlusEndpoint catalogPlusEndpoint = new CatalogPlusEndpoint(conffile);
+        ServletHolder holderCatalogPlus = new ServletHolder(catalogPlusEndpoint);
+        holderCatalogPlus.setInitOrder(1);
+        holderCatalogPlus.setAsyncSupported(true);
+        context.addServlet(holderCatalogPlus, config.getProperty("service.endpoint.catalogplus") + "/*");
+
+        // metrics
+        Metrics metrics = catalogPlusEndpoint.getMetrics();
+
+        metrics.register("catalogplus_jetty_threads", "gauge", "", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return threadPool.getThreads();
+            }
+        });
+        metrics.register("catalogplus_jetty_threads_idle", "gauge", "", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return threadPool.getIdleThreads();
+            }
+        });
+        metrics.register("catalogplus_jetty_threads_max", "gauge", "", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return threadPool.getMaxThreads();
+            }
+        });
+        metrics.register("catalogplus_jetty_queue_size", "gauge", "", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return threadPool.getQueueSize();
+            }
+        });
+
+        ServletHolder holderMetrics = new ServletHolder(new MetricsEndpoint(metrics));
+        context.addServlet(holderMetrics, config.getProperty("service.endpoint.metrics", "/metrics"));
+
+        // warm-up through a local connector before the port is opened
+        LocalConnector localConnector = new LocalConnector(server);
+        final Warmup warmup = new Warmup(localConnector, config);
+
+        if (warmup.isEnabled()) {
+
+            server.addConnector(localConnector);
+            server.addBean(warmup);
+
+            metrics.register("catalogplus_warmup_seconds", "gauge", "", new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return warmup.getDuration() / 1e9;
+                }
+            });
+            metrics.register("catalogplus_warmup_requests_total", "counter", Metrics.labels("state", "succeeded"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return warmup.getSucceeded();
+                }
+            });
+            metrics.register("catalogplus_warmup_requests_total", "counter", Metrics.labels("state", "failed"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return warmup.getFailed();
+                }
+            });
+            metrics.register("catalogplus_warmup_requests_total", "counter", Metrics.labels("state", "skipped"), new Metrics.Gauge() {
+                @Override
+                public double value() {
+                    return warmup.getSkipped();
+                }
+            });
+        }
+
+        // readiness for the load balancer
+        final ReadinessEndpoint readinessEndpoint = new ReadinessEndpoint();
+        server.addBean(readinessEndpoint);
+
+        server.addEventListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStopping(LifeCycle event) {
+                readinessEndpoint.setReady(false);
+            }
+        });
+
+        metrics.register("catalogplus_ready", "gauge", "", new Metrics.Gauge() {
+            @Override
+            public double value() {
+                return readinessEndpoint.isReady() ? 1 : 0;
+            }
+        });
+
+        ServletHolder holderReady = new ServletHolder(readinessEndpoint);
+        context.addServlet(holderReady, config.getProperty("service.endpoint.ready", "/ready"));
+
+        return server;
+    }
+
+    /**
+     * Starts the server built by {@link #createServer(String, Properties)}. With a configured warm-up the network
+     * connectors are only opened after the warm-up; the readiness endpoint reports the instance ready afterwards.
+     */
+    public static void start(Server server) throws Exception {
+
+        Warmup warmup = server.getBean(Warmup.class);
+        LocalConnector localConnector = server.getBean(LocalConnector.class);
+
+        List<Connector> connectors = new ArrayList<Connector>();
+
+        if (warmup != null) {
+
+            for (Connector connector : server.getConnectors()) {
+
+                if (connector instanceof NetworkConnector) {
+
+                    connectors.add(connector);
+                    server.removeConnector(connector);
+                }
+            }
+        }
+
+        server.start();
+
+        if (warmup != null) {
+
+            warmup.run();
+
+            server.removeConnector(localConnector);
+            localConnector.stop();
+
+            for (Connector connector : connectors) {
+
+                server.addConnector(connector);
+                server.manage(connector);
+                connector.start();
+            }
         }
+
+        server.getBean(ReadinessEndpoint.class).setReady(true);
     }
 }
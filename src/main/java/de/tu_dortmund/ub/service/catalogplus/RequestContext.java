@@ -0,0 +1,83 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus;
+
+import java.util.Properties;
+
+/**
+ * Negotiated format, language, access rights and debug flag of a request. The endpoint is shared by all requests, so
+ * this state is passed along with the request instead of being kept in fields of the servlet.
+ */
+public final class RequestContext {
+
+    private final String format;
+    private final String language;
+    private final boolean isTUintern;
+    private final boolean isUBintern;
+    private final boolean debug;
+
+    public RequestContext(String format, String language, boolean isTUintern, boolean isUBintern, boolean debug) {
+
+        this.format = format;
+        this.language = language;
+        this.isTUintern = isTUintern;
+        this.isUBintern = isUBintern;
+        this.debug = debug;
+    }
+
+    public String getFormat() {
+        return this.format;
+    }
+
+    public String getLanguage() {
+        return this.language;
+    }
+
+    public boolean isTUintern() {
+        return this.isTUintern;
+    }
+
+    public boolean isUBintern() {
+        return this.isUBintern;
+    }
+
+    public boolean isDebug() {
+        return this.debug;
+    }
+
+    /**
+     * @return new render parameters with language, access rights and debug flag
+     */
+    public Properties renderParameters() {
+
+        Properties renderParameters = new Properties();
+        renderParameters.setProperty("lang", this.language);
+        renderParameters.setProperty("isTUintern", Boolean.toString(this.isTUintern));
+        renderParameters.setProperty("isUBintern", Boolean.toString(this.isUBintern));
+        renderParameters.setProperty("debug", Boolean.toString(this.debug));
+
+        return renderParameters;
+    }
+}
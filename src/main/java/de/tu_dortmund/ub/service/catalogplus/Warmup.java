@@ -0,0 +1,265 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.LocalConnector;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays representative requests through the endpoint before the service accepts traffic, so that class loading,
+ * JIT compilation, the serializers, the caches and the backend connections are warm when the first real request
+ * arrives. The requests are read from files with one entry per line: queries ('service.warmup.queries'), class
+ * notations ('service.warmup.classes') and typeahead prefixes ('service.warmup.prefixes'). They are sent through a
+ * {@link LocalConnector}, i.e. the whole handler chain is run without opening a port.
+ */
+public class Warmup {
+
+    private Logger logger = Logger.getLogger(Warmup.class.getName());
+
+    private final LocalConnector connector;
+    private final String serviceName;
+    private final String forwardedFor;
+    private final int rounds;
+    private final int threads;
+    private final long timeout;
+
+    private final List<String> requests = new ArrayList<String>();
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile long duration = 0;
+
+    public Warmup(LocalConnector connector, Properties config) throws IOException {
+
+        this.connector = connector;
+        this.serviceName = config.getProperty("service.name");
+        this.forwardedFor = config.getProperty("service.warmup.forwarded-for", "127.0.0.1");
+        this.rounds = Integer.parseInt(config.getProperty("service.warmup.rounds", "2"));
+        this.threads = Integer.parseInt(config.getProperty("service.warmup.threads", "4"));
+        this.timeout = Long.parseLong(config.getProperty("service.warmup.timeout", "120"));
+
+        String contextPath = config.getProperty("service.contextPath", "/");
+        if (contextPath.endsWith("/")) {
+            contextPath = contextPath.substring(0, contextPath.length() - 1);
+        }
+        String base = contextPath + config.getProperty("service.endpoint.catalogplus");
+
+        // JSON and XML are restricted to 'service.iprange.ub', the default sender is not in it
+        String[] formats = config.getProperty("service.warmup.formats", "html").split(",");
+
+        for (String format : formats) {
+
+            if (!format.trim().equals("html") && config.getProperty("service.warmup.forwarded-for") == null) {
+
+                this.logger.warn("[" + this.serviceName + "] " + "Warm-up in '" + format.trim() + "' without 'service.warmup.forwarded-for': "
+                        + "the requests come from " + this.forwardedFor + ", which must be in 'service.iprange.ub'");
+            }
+        }
+
+        for (String query : read(config.getProperty("service.warmup.queries"))) {
+            for (String format : formats) {
+                this.requests.add(base + "/search?q=" + URLEncoder.encode(query, "UTF-8") + "&format=" + format.trim());
+            }
+        }
+        for (String notation : read(config.getProperty("service.warmup.classes"))) {
+            for (String format : formats) {
+                this.requests.add(base + "/api?class=" + URLEncoder.encode(notation, "UTF-8") + "&format=" + format.trim());
+            }
+        }
+        for (String prefix : read(config.getProperty("service.warmup.prefixes"))) {
+            this.requests.add(base + "/typeahead?q=" + URLEncoder.encode(prefix, "UTF-8") + "&format=json");
+        }
+    }
+
+    public boolean isEnabled() {
+
+        return !this.requests.isEmpty();
+    }
+
+    /**
+     * Sends all requests 'service.warmup.rounds' times on 'service.warmup.threads' threads. The warm-up is cut off
+     * after 'service.warmup.timeout' seconds; the remaining requests are skipped.
+     */
+    public void run() throws InterruptedException {
+
+        long start = System.nanoTime();
+        final long deadline = start + TimeUnit.SECONDS.toNanos(this.timeout);
+
+        this.logger.info("[" + this.serviceName + "] " + "Warm-up: " + this.requests.size() + " requests x " + this.rounds + " rounds ...");
+
+        for (int round = 0; round < this.rounds; round++) {
+
+            // rounds one after the other, so that later rounds hit the compiled code and the filled caches
+            ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+
+            for (final String request : this.requests) {
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+
+                        if (System.nanoTime() - deadline > 0) {
+                            skipped.incrementAndGet();
+                        }
+                        else {
+                            send(request, deadline);
+                        }
+                    }
+                });
+            }
+
+            executor.shutdown();
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+
+                this.skipped.addAndGet(executor.shutdownNow().size());
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+        }
+
+        this.duration = System.nanoTime() - start;
+
+        this.logger.info("[" + this.serviceName + "] " + "Warm-up finished in " + TimeUnit.NANOSECONDS.toMillis(this.duration) + " ms: "
+                + this.succeeded.get() + " succeeded, " + this.failed.get() + " failed, " + this.skipped.get() + " skipped");
+    }
+
+    private void send(String request, long deadline) {
+
+        try {
+            String response = this.connector.getResponse("GET " + request + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "X-Forwarded-For: " + this.forwardedFor + "\r\n"
+                    + "Accept-Encoding: gzip\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n", Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+            int status = status(response);
+
+            if (status >= 200 && status < 400) {
+                this.succeeded.incrementAndGet();
+            }
+            else {
+                this.failed.incrementAndGet();
+                this.logger.warn("[" + this.serviceName + "] " + "Warm-up request '" + request + "' failed with status " + status);
+
+                if (status == 400 && denied(response)) {
+
+                    this.logger.warn("[" + this.serviceName + "] " + "Warm-up format not allowed for " + this.forwardedFor
+                            + ": set 'service.warmup.forwarded-for' to an IP in 'service.iprange.ub'");
+                }
+            }
+        }
+        catch (Exception e) {
+
+            this.failed.incrementAndGet();
+            this.logger.warn("[" + this.serviceName + "] " + "Warm-up request '" + request + "' failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the status code of the raw response or -1 if there was no complete response
+     */
+    static int status(String response) {
+
+        if (response == null || !response.startsWith("HTTP/") || response.length() < 12) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(response.substring(9, 12));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return true if the raw response rejects the format for the IP of the sender
+     */
+    static boolean denied(String response) {
+
+        return response != null && response.contains("not allowed to request results");
+    }
+
+    /**
+     * @return the non-empty lines of the file without comments starting with '#'
+     */
+    static List<String> read(String file) throws IOException {
+
+        List<String> lines = new ArrayList<String>();
+
+        if (file == null || file.equals("")) {
+            return lines;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+                if (!line.equals("") && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    public long getDuration() {
+
+        return this.duration;
+    }
+
+    public long getSucceeded() {
+
+        return this.succeeded.get();
+    }
+
+    public long getFailed() {
+
+        return this.failed.get();
+    }
+
+    public long getSkipped() {
+
+        return this.skipped.get();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link ResourceDiscoveryService}, implemented by a plugin in addition to it; the blocking API
+ * is still used for background work like refreshes and prefetches. The returned future is completed on a thread owned
+ * by the implementation, either with the result or exceptionally with an {@link RDSException}.
+ */
+public interface AsyncResourceDiscoveryService {
+
+    /**
+     * @param format "html", "xml" or "json"
+     * @param renderParameters only used for format "html"
+     */
+    CompletableFuture<String> getSearchResults(String format, Properties requestParameters, Properties renderParameters);
+
+    CompletableFuture<String> getSuggestionsAsync(String prefix);
+}
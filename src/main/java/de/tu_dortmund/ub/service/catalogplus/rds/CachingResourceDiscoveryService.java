@@ -0,0 +1,390 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import de.tu_dortmund.ub.util.impl.CapturingWriter;
+import de.tu_dortmund.ub.util.impl.DiskCache;
+import de.tu_dortmund.ub.util.impl.ResponseCache;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Caches the results of a {@link ResourceDiscoveryService} by the normalized request. Failed requests are not cached.
+ *
+ * Entries older than 'service.cache.ttl' (in s) are still served up to 'service.cache.ttl.hard' while they are
+ * refreshed in the background, one refresh per entry at a time. Expired entries are retained for
+ * 'service.cache.stale-if-error' (in s) to answer requests the backend fails on, see {@link #getStale(String)}.
+ */
+public class CachingResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements AsyncResourceDiscoveryService, Closeable {
+
+    private Logger logger = Logger.getLogger(CachingResourceDiscoveryService.class.getName());
+
+    private final String serviceName;
+    private final ResponseCache cache;
+    private final long softTtl;
+    private final ThreadPoolExecutor refresher;
+
+    // entries with a refresh in progress
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    public CachingResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService, Properties config) {
+
+        super(resourceDiscoveryService);
+
+        this.serviceName = config.getProperty("service.name");
+
+        long maxBytes = Long.parseLong(config.getProperty("service.cache.maxbytes", "67108864"));
+        long ttl = Long.parseLong(config.getProperty("service.cache.ttl", "300"));
+        long hardTtl = Math.max(ttl, Long.parseLong(config.getProperty("service.cache.ttl.hard", Long.toString(ttl))));
+        long staleIfError = Long.parseLong(config.getProperty("service.cache.stale-if-error", "3600"));
+
+        // stored compressed as well if the responses are compressed
+        int compressionMinSize = -1;
+        if (Boolean.parseBoolean(config.getProperty("service.compression", "true"))) {
+            compressionMinSize = Integer.parseInt(config.getProperty("service.compression.minsize", "1024"));
+        }
+
+        long retention = Math.max(hardTtl, staleIfError) * 1000;
+
+        this.softTtl = ttl * 1000;
+        this.cache = new ResponseCache(maxBytes, hardTtl * 1000, retention, compressionMinSize, DiskCache.open(config, "rds", retention));
+
+        int threads = Integer.parseInt(config.getProperty("service.cache.refresh.threads", "2"));
+        int queue = Integer.parseInt(config.getProperty("service.cache.refresh.queue", "100"));
+
+        this.refresher = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "rds-refresh-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.refresher.allowCoreThreadTimeOut(true);
+
+        this.logger.info("[" + this.serviceName + "] " + "RDS cache: maxbytes = " + maxBytes + ", ttl = " + ttl + "s, ttl.hard = " + hardTtl + "s, stale-if-error = " + staleIfError + "s");
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+        return this.get(RequestKey.of("html", requestParameters, renderParameters), this.searchLoader("html", requestParameters, renderParameters));
+    }
+
+    @Override
+    public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+        return this.get(RequestKey.of("xml", requestParameters, null), this.searchLoader("xml", requestParameters, null));
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+        return this.get(RequestKey.of("json", requestParameters, null), this.searchLoader("json", requestParameters, null));
+    }
+
+    @Override
+    public String getSuggestions(final String prefix) throws RDSException {
+
+        return this.get(RequestKey.ofSuggestions(prefix), new Loader() {
+            @Override
+            public String load() throws RDSException {
+                return resourceDiscoveryService.getSuggestions(prefix);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        String key = RequestKey.of("html", requestParameters, renderParameters);
+
+        String result = this.getCached(key, this.searchLoader("html", requestParameters, renderParameters));
+        if (result != null) {
+            writer.write(result);
+        }
+        else {
+            CapturingWriter capturingWriter = new CapturingWriter(writer);
+            super.writeSearchResultsAsHTML(requestParameters, renderParameters, capturingWriter);
+            this.put(key, capturingWriter.getCopy());
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        String key = RequestKey.of("xml", requestParameters, null);
+
+        String result = this.getCached(key, this.searchLoader("xml", requestParameters, null));
+        if (result != null) {
+            writer.write(result);
+        }
+        else {
+            CapturingWriter capturingWriter = new CapturingWriter(writer);
+            super.writeSearchResultsAsXML(requestParameters, capturingWriter);
+            this.put(key, capturingWriter.getCopy());
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        String key = RequestKey.of("json", requestParameters, null);
+
+        String result = this.getCached(key, this.searchLoader("json", requestParameters, null));
+        if (result != null) {
+            writer.write(result);
+        }
+        else {
+            CapturingWriter capturingWriter = new CapturingWriter(writer);
+            super.writeSearchResultsAsJSON(requestParameters, capturingWriter);
+            this.put(key, capturingWriter.getCopy());
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> getSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+        String key = RequestKey.of(format, requestParameters, renderParameters);
+
+        String result = this.getCached(key, this.searchLoader(format, requestParameters, renderParameters));
+        if (result != null) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return this.put(key, this.getAsyncResourceDiscoveryService().getSearchResults(format, requestParameters, renderParameters));
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestionsAsync(final String prefix) {
+
+        String key = RequestKey.ofSuggestions(prefix);
+
+        String result = this.getCached(key, new Loader() {
+            @Override
+            public String load() throws RDSException {
+                return resourceDiscoveryService.getSuggestions(prefix);
+            }
+        });
+        if (result != null) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        return this.put(key, this.getAsyncResourceDiscoveryService().getSuggestionsAsync(prefix));
+    }
+
+    /**
+     * Cache hits without a call of the plugin, e.g. to send the compressed entry.
+     *
+     * @return the cached search results or null; misses are not counted
+     */
+    public ResponseCache.Entry getCachedSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+        String key = RequestKey.of(format, requestParameters, renderParameters);
+
+        ResponseCache.Entry entry = this.cache.getEntry(key);
+
+        if (entry != null) {
+            this.revalidate(key, entry, this.searchLoader(format, requestParameters, renderParameters));
+        }
+
+        return entry;
+    }
+
+    /**
+     * Unlike {@link #getCachedSearchResults(String, Properties, Properties)} neither counted nor revalidated.
+     *
+     * @return true if the search results are cached in memory
+     */
+    public boolean containsSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+        return this.cache.contains(RequestKey.of(format, requestParameters, renderParameters));
+    }
+
+    /**
+     * @param key see {@link RequestKey}
+     * @return the last result for the request, even if expired, or null
+     */
+    public ResponseCache.Entry getStale(String key) {
+
+        return this.cache.getStale(key);
+    }
+
+    private String get(String key, Loader loader) throws RDSException {
+
+        String result = this.getCached(key, loader);
+        if (result == null) {
+
+            result = loader.load();
+            this.put(key, result);
+        }
+
+        return result;
+    }
+
+    private String getCached(String key, Loader loader) {
+
+        ResponseCache.Entry entry = this.cache.getEntry(key, true);
+
+        if (entry == null) {
+            return null;
+        }
+
+        this.revalidate(key, entry, loader);
+
+        return entry.getContent();
+    }
+
+    /**
+     * Refreshes an entry older than the soft time to live in the background. Never blocks; if the refresh queue is full,
+     * the next request tries again.
+     */
+    private void revalidate(final String key, ResponseCache.Entry entry, final Loader loader) {
+
+        if (System.currentTimeMillis() - entry.getCreated() <= this.softTtl || !this.refreshing.add(key)) {
+            return;
+        }
+
+        try {
+
+            this.refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    try {
+                        put(key, loader.load());
+                        refreshes.incrementAndGet();
+                    }
+                    catch (Exception e) {
+
+                        refreshFailures.incrementAndGet();
+                        logger.debug("[" + serviceName + "] " + "Refresh failed: " + e.getMessage());
+                    }
+                    finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+
+            this.refreshing.remove(key);
+        }
+    }
+
+    private Loader searchLoader(final String format, final Properties requestParameters, final Properties renderParameters) {
+
+        return new Loader() {
+            @Override
+            public String load() throws RDSException {
+
+                switch (format) {
+
+                    case "html": {
+                        return resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+                    }
+                    case "json": {
+                        return resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+                    }
+                    default: {
+                        return resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+                    }
+                }
+            }
+        };
+    }
+
+    private CompletableFuture<String> put(final String key, CompletableFuture<String> future) {
+
+        return future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String result, Throwable throwable) {
+
+                if (throwable == null) {
+                    put(key, result);
+                }
+            }
+        });
+    }
+
+    private void put(String key, String result) {
+
+        if (result != null) {
+            this.cache.put(key, result);
+        }
+    }
+
+    public ResponseCache getCache() {
+
+        return this.cache;
+    }
+
+    public long getRefreshes() {
+
+        return this.refreshes.get();
+    }
+
+    public long getRefreshFailures() {
+
+        return this.refreshFailures.get();
+    }
+
+    @Override
+    public void close() {
+
+        this.refresher.shutdownNow();
+
+        if (this.cache.getDiskCache() != null) {
+            this.cache.getDiskCache().close();
+        }
+    }
+
+    private interface Loader {
+
+        String load() throws RDSException;
+    }
+}
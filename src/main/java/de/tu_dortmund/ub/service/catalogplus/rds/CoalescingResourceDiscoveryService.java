@@ -0,0 +1,272 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import de.tu_dortmund.ub.util.impl.SingleFlight;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Coalesces concurrent identical requests: only one call per normalized request goes to the wrapped service, all
+ * other callers share its result. Streaming calls are streamed into the writer of the caller executing the call; the
+ * others write a copy of the result into their own writer, so that no caller depends on the connection of another one.
+ * Asynchronous callers share the future of the call.
+ */
+public class CoalescingResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements AsyncResourceDiscoveryService {
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<String>();
+
+    public CoalescingResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService) {
+
+        super(resourceDiscoveryService);
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(final Properties requestParameters, final Properties renderParameters) throws RDSException {
+
+        return this.execute(RequestKey.of("html", requestParameters, renderParameters), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsXML(final Properties requestParameters) throws RDSException {
+
+        return this.execute(RequestKey.of("xml", requestParameters, null), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(final Properties requestParameters) throws RDSException {
+
+        return this.execute(RequestKey.of("json", requestParameters, null), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSuggestions(final String prefix) throws RDSException {
+
+        return this.execute(RequestKey.ofSuggestions(prefix), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSuggestions(prefix);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getSearchResults(final String format, final Properties requestParameters, final Properties renderParameters) {
+
+        return this.singleFlight.executeAsync(RequestKey.of(format, requestParameters, renderParameters), new Callable<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> call() {
+                return getAsyncResourceDiscoveryService().getSearchResults(format, requestParameters, renderParameters);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestionsAsync(final String prefix) {
+
+        return this.singleFlight.executeAsync(RequestKey.ofSuggestions(prefix), new Callable<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> call() {
+                return getAsyncResourceDiscoveryService().getSuggestionsAsync(prefix);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(final Properties requestParameters, final Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        this.stream(RequestKey.of("html", requestParameters, renderParameters), writer, new Stream() {
+            @Override
+            public void write(Writer writer) throws RDSException, IOException {
+                CoalescingResourceDiscoveryService.super.writeSearchResultsAsHTML(requestParameters, renderParameters, writer);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(final Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        this.stream(RequestKey.of("xml", requestParameters, null), writer, new Stream() {
+            @Override
+            public void write(Writer writer) throws RDSException, IOException {
+                CoalescingResourceDiscoveryService.super.writeSearchResultsAsXML(requestParameters, writer);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(final Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        this.stream(RequestKey.of("json", requestParameters, null), writer, new Stream() {
+            @Override
+            public void write(Writer writer) throws RDSException, IOException {
+                CoalescingResourceDiscoveryService.super.writeSearchResultsAsJSON(requestParameters, writer);
+            }
+        });
+    }
+
+    private void stream(String key, Writer writer, final Stream stream) throws RDSException, IOException {
+
+        final LeaderWriter leader = new LeaderWriter(writer);
+
+        String result = this.execute(key, new Callable<String>() {
+            @Override
+            public String call() throws RDSException, IOException {
+                leader.leading = true;
+                stream.write(leader);
+                return leader.copy.toString();
+            }
+        });
+
+        if (leader.leading) {
+
+            if (leader.failure != null) {
+                throw leader.failure;
+            }
+        }
+        else {
+
+            // outside of the shared call: I/O errors only reach the caller of this writer
+            writer.write(result);
+        }
+    }
+
+    /**
+     * Writer of the caller executing the shared call: the result is streamed into its writer and kept for the other
+     * callers. A failing writer only fails its own caller; the result is still produced for the others.
+     */
+    private static class LeaderWriter extends Writer {
+
+        private final Writer writer;
+        private final StringBuilder copy = new StringBuilder();
+        private boolean leading = false;
+        private IOException failure;
+
+        LeaderWriter(Writer writer) {
+
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+
+            this.copy.append(chars, offset, length);
+
+            if (this.failure == null) {
+
+                try {
+                    this.writer.write(chars, offset, length);
+                }
+                catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+
+            this.copy.append(string, offset, offset + length);
+
+            if (this.failure == null) {
+
+                try {
+                    this.writer.write(string, offset, length);
+                }
+                catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+
+            if (this.failure == null) {
+
+                try {
+                    this.writer.flush();
+                }
+                catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+        }
+
+        /**
+         * The wrapped writer is not closed, it belongs to the caller.
+         */
+        @Override
+        public void close() {
+
+            this.flush();
+        }
+    }
+
+    private interface Stream {
+
+        void write(Writer writer) throws RDSException, IOException;
+    }
+
+    private String execute(String key, Callable<String> call) throws RDSException {
+
+        try {
+            return this.singleFlight.execute(key, call);
+        }
+        catch (RDSException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RDSException(e.getMessage(), e);
+        }
+    }
+
+    public SingleFlight<String> getSingleFlight() {
+
+        return this.singleFlight;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a synchronous {@link ResourceDiscoveryService} on a bounded executor, so that blocking plugins can be used by the
+ * asynchronous request handling of the endpoint.
+ */
+public class ExecutorResourceDiscoveryService implements AsyncResourceDiscoveryService, Closeable {
+
+    private Logger logger = Logger.getLogger(ExecutorResourceDiscoveryService.class.getName());
+
+    private final ResourceDiscoveryService resourceDiscoveryService;
+    private final ThreadPoolExecutor executor;
+
+    public ExecutorResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService, Properties config) {
+
+        this.resourceDiscoveryService = resourceDiscoveryService;
+
+        int threads = Integer.parseInt(config.getProperty("service.async.threads", "50"));
+        int queue = Integer.parseInt(config.getProperty("service.async.queue", "500"));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "rds-async-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.logger.info("[" + config.getProperty("service.name") + "] " + "RDS executor: threads = " + threads + ", queue = " + queue);
+    }
+
+    @Override
+    public CompletableFuture<String> getSearchResults(final String format, final Properties requestParameters, final Properties renderParameters) {
+
+        return this.submit(new Callable<String>() {
+
+            @Override
+            public String call() throws RDSException {
+
+                switch (format) {
+
+                    case "html": {
+                        return resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+                    }
+                    case "xml": {
+                        return resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+                    }
+                    case "json": {
+                        return resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+                    }
+                    default: {
+                        throw new RDSException("Format '" + format + "' not supported!");
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestionsAsync(final String prefix) {
+
+        return this.submit(new Callable<String>() {
+
+            @Override
+            public String call() throws RDSException {
+
+                return resourceDiscoveryService.getSuggestions(prefix);
+            }
+        });
+    }
+
+    /**
+     * Runs any other blocking RDS work on the executor.
+     *
+     * @return the future of the call, completed exceptionally with an {@link RDSException} on failure or if the queue is
+     * full
+     */
+    public CompletableFuture<String> submit(final Callable<String> call) {
+
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        try {
+
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        future.complete(call.call());
+                    }
+                    catch (RDSException e) {
+                        future.completeExceptionally(e);
+                    }
+                    catch (Exception e) {
+                        future.completeExceptionally(new RDSException(e.getMessage(), e));
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+
+            future.completeExceptionally(new RDSException("Resource Discovery Service overloaded!", e));
+        }
+
+        return future;
+    }
+
+    public int getActiveCount() {
+
+        return this.executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+
+        return this.executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdown();
+    }
+}
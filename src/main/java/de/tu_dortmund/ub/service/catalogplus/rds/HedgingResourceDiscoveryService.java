@@ -0,0 +1,367 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged search requests: if the {@link ResourceDiscoveryService} plugin has not answered after the
+ * 'service.hedging.percentile' of the recent search latencies, the same request is sent a second time and the first
+ * answer wins. Hedges are limited to the share 'service.hedging.budget' of the search requests.
+ *
+ * Results are buffered, the losing call is interrupted.
+ */
+public class HedgingResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements Closeable {
+
+    private static final long BUDGET_UNIT = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long refreshNanos;
+    private final long budget;
+    private final long maxBudget;
+
+    private final Recorder recorder = new Recorder(TimeUnit.MINUTES.toNanos(10), 2);
+    private Histogram interval;
+    private volatile long delayNanos;
+    private final AtomicLong nextRefresh;
+
+    private final AtomicLong tokens;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public HedgingResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService, Properties config) {
+
+        super(resourceDiscoveryService);
+
+        this.percentile = Double.parseDouble(config.getProperty("service.hedging.percentile", "95"));
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(config.getProperty("service.hedging.delay.min", "50")));
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(config.getProperty("service.hedging.delay", "1000")));
+        this.refreshNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(config.getProperty("service.hedging.refresh", "10")));
+        this.nextRefresh = new AtomicLong(System.nanoTime() + this.refreshNanos);
+
+        // budget in thousandths of a hedge per search request, at most 10 hedges in reserve
+        this.budget = (long) (Double.parseDouble(config.getProperty("service.hedging.budget", "0.05")) * BUDGET_UNIT);
+        this.maxBudget = 10 * BUDGET_UNIT;
+        this.tokens = new AtomicLong(this.maxBudget);
+
+        int threads = Integer.parseInt(config.getProperty("service.hedging.threads", "50"));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "rds-hedging-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(final Properties requestParameters, final Properties renderParameters) throws RDSException {
+
+        return this.hedge(new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsXML(final Properties requestParameters) throws RDSException {
+
+        return this.hedge(new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(final Properties requestParameters) throws RDSException {
+
+        return this.hedge(new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsHTML(requestParameters, renderParameters));
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsXML(requestParameters));
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsJSON(requestParameters));
+    }
+
+    public long getCalls() {
+
+        return this.calls.get();
+    }
+
+    public long getHedges() {
+
+        return this.hedges.get();
+    }
+
+    public long getWins() {
+
+        return this.wins.get();
+    }
+
+    public long getBudgetExhausted() {
+
+        return this.exhausted.get();
+    }
+
+    public long getDelayMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(this.delayNanos);
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdownNow();
+    }
+
+    private String hedge(Callable<String> callable) throws RDSException {
+
+        this.calls.incrementAndGet();
+        this.earn();
+        this.refresh();
+
+        long start = System.nanoTime();
+        BlockingQueue<Attempt> results = new LinkedBlockingQueue<Attempt>();
+
+        Future<?> primary;
+        try {
+            primary = this.executor.submit(new Attempt(callable, results, false));
+        }
+        catch (RejectedExecutionException e) {
+
+            // no threads left: no hedging either
+            return this.call(callable, start);
+        }
+
+        Future<?> secondary = null;
+
+        try {
+
+            Attempt attempt = results.poll(this.delayNanos, TimeUnit.NANOSECONDS);
+
+            if (attempt == null && this.spend()) {
+
+                try {
+                    secondary = this.executor.submit(new Attempt(callable, results, true));
+                    this.hedges.incrementAndGet();
+                }
+                catch (RejectedExecutionException e) {
+                    this.tokens.addAndGet(BUDGET_UNIT);
+                }
+            }
+
+            int pending = secondary == null ? 1 : 2;
+
+            while (true) {
+
+                if (attempt == null) {
+                    attempt = results.take();
+                }
+                pending--;
+
+                if (attempt.error == null || pending == 0) {
+
+                    if (attempt.error == null) {
+
+                        if (attempt.hedge) {
+                            this.wins.incrementAndGet();
+                        }
+                        this.recorder.recordValue(Math.min(System.nanoTime() - start, TimeUnit.MINUTES.toNanos(10)));
+
+                        return attempt.result;
+                    }
+
+                    throw attempt.error;
+                }
+
+                attempt = null;
+            }
+        }
+        catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new RDSException("Interrupted while waiting for the Resource Discovery Service!", e);
+        }
+        finally {
+
+            primary.cancel(true);
+            if (secondary != null) {
+                secondary.cancel(true);
+            }
+        }
+    }
+
+    private String call(Callable<String> callable, long start) throws RDSException {
+
+        try {
+
+            String result = callable.call();
+            this.recorder.recordValue(Math.min(System.nanoTime() - start, TimeUnit.MINUTES.toNanos(10)));
+
+            return result;
+        }
+        catch (RDSException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RDSException(e.getMessage(), e);
+        }
+    }
+
+    private void earn() {
+
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current >= this.maxBudget) {
+                return;
+            }
+        }
+        while (!this.tokens.compareAndSet(current, Math.min(this.maxBudget, current + this.budget)));
+    }
+
+    private boolean spend() {
+
+        long current;
+        do {
+            current = this.tokens.get();
+            if (current < BUDGET_UNIT) {
+
+                this.exhausted.incrementAndGet();
+                return false;
+            }
+        }
+        while (!this.tokens.compareAndSet(current, current - BUDGET_UNIT));
+
+        return true;
+    }
+
+    /**
+     * The hedging delay follows the latencies of the last interval.
+     */
+    private void refresh() {
+
+        long next = this.nextRefresh.get();
+
+        if (System.nanoTime() - next < 0 || !this.nextRefresh.compareAndSet(next, System.nanoTime() + this.refreshNanos)) {
+            return;
+        }
+
+        synchronized (this.recorder) {
+
+            this.interval = this.recorder.getIntervalHistogram(this.interval);
+
+            if (this.interval.getTotalCount() >= 20) {
+                this.delayNanos = Math.max(this.minDelayNanos, this.interval.getValueAtPercentile(this.percentile));
+            }
+        }
+    }
+
+    private static class Attempt implements Runnable {
+
+        final Callable<String> callable;
+        final BlockingQueue<Attempt> results;
+        final boolean hedge;
+
+        String result;
+        RDSException error;
+
+        Attempt(Callable<String> callable, BlockingQueue<Attempt> results, boolean hedge) {
+
+            this.callable = callable;
+            this.results = results;
+            this.hedge = hedge;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                this.result = this.callable.call();
+            }
+            catch (RDSException e) {
+                this.error = e;
+            }
+            catch (Exception e) {
+                this.error = new RDSException(e.getMessage(), e);
+            }
+
+            this.results.offer(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import de.tu_dortmund.ub.util.impl.Metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Records the time spent in the {@link ResourceDiscoveryService} plugin and its failures; asynchronous calls on
+ * completion.
+ */
+public class MetricsResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements AsyncResourceDiscoveryService {
+
+    public static final String DURATION = "catalogplus_backend_duration_seconds";
+    public static final String ERRORS = "catalogplus_backend_errors_total";
+
+    private final Metrics metrics;
+
+    public MetricsResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService, Metrics metrics) {
+
+        super(resourceDiscoveryService);
+
+        this.metrics = metrics;
+        this.metrics.describe(DURATION, "summary", "Time spent in calls of the backend plugins.");
+        this.metrics.describe(ERRORS, "counter", "Failed calls of the backend plugins.");
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = super.getSearchResultsAsHTML(requestParameters, renderParameters);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("search", "html", start, success);
+        }
+    }
+
+    @Override
+    public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = super.getSearchResultsAsXML(requestParameters);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("search", "xml", start, success);
+        }
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = super.getSearchResultsAsJSON(requestParameters);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("search", "json", start, success);
+        }
+    }
+
+    @Override
+    public String getSuggestions(String prefix) throws RDSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = super.getSuggestions(prefix);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("typeahead", "json", start, success);
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            super.writeSearchResultsAsHTML(requestParameters, renderParameters, writer);
+            success = true;
+        }
+        finally {
+            this.record("search", "html", start, success);
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            super.writeSearchResultsAsXML(requestParameters, writer);
+            success = true;
+        }
+        finally {
+            this.record("search", "xml", start, success);
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            super.writeSearchResultsAsJSON(requestParameters, writer);
+            success = true;
+        }
+        finally {
+            this.record("search", "json", start, success);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> getSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+        long start = System.nanoTime();
+
+        return this.record("search", format, start, this.getAsyncResourceDiscoveryService().getSearchResults(format, requestParameters, renderParameters));
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestionsAsync(String prefix) {
+
+        long start = System.nanoTime();
+
+        return this.record("typeahead", "json", start, this.getAsyncResourceDiscoveryService().getSuggestionsAsync(prefix));
+    }
+
+    private CompletableFuture<String> record(final String operation, final String format, final long start, CompletableFuture<String> future) {
+
+        return future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String result, Throwable throwable) {
+                record(operation, format, start, throwable == null);
+            }
+        });
+    }
+
+    private void record(String operation, String format, long start, boolean success) {
+
+        String labels = Metrics.labels("system", "rds", "operation", operation, "format", format);
+
+        this.metrics.observe(DURATION, labels, System.nanoTime() - start);
+
+        if (!success) {
+            this.metrics.increment(ERRORS, labels);
+        }
+    }
+}
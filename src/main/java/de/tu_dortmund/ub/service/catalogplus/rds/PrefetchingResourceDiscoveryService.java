@@ -0,0 +1,326 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Loads the next page of a search into the result cache while the user reads the current one. 'start' is the page
+ * number, the first page if empty; pages after 'service.prefetch.maxstart' (Default: 20, the limit of the endpoint) are
+ * not prefetched.
+ *
+ * Prefetches run on 'service.prefetch.threads' low priority threads with a queue of 'service.prefetch.queue'. They are
+ * skipped while 'service.prefetch.maxactive' or more user requests are waiting for the backend or the queue is full.
+ */
+public class PrefetchingResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements AsyncResourceDiscoveryService, Closeable {
+
+    private Logger logger = Logger.getLogger(PrefetchingResourceDiscoveryService.class.getName());
+
+    private final String serviceName;
+    private final CachingResourceDiscoveryService cache;
+    private final ThreadPoolExecutor executor;
+    private final int maxStart;
+    private final int maxActive;
+
+    // user requests on their way to the backend
+    private final AtomicInteger active = new AtomicInteger();
+
+    // prefetched keys not yet requested; the oldest are forgotten
+    private final Map<String, Boolean> prefetched;
+
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param cache the cache filled by the prefetches; also the wrapped service
+     */
+    public PrefetchingResourceDiscoveryService(CachingResourceDiscoveryService cache, Properties config) {
+
+        super(cache);
+
+        this.serviceName = config.getProperty("service.name");
+        this.cache = cache;
+        this.maxStart = Integer.parseInt(config.getProperty("service.prefetch.maxstart", "20"));
+        this.maxActive = Integer.parseInt(config.getProperty("service.prefetch.maxactive", "10"));
+
+        int threads = Integer.parseInt(config.getProperty("service.prefetch.threads", "1"));
+        int queue = Integer.parseInt(config.getProperty("service.prefetch.queue", "10"));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "rds-prefetch-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        final int remembered = Integer.parseInt(config.getProperty("service.prefetch.remember", "1000"));
+
+        this.prefetched = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return this.size() > remembered;
+            }
+        });
+
+        this.logger.info("[" + this.serviceName + "] " + "RDS prefetch: threads = " + threads + ", queue = " + queue + ", maxactive = " + this.maxActive);
+    }
+
+    /**
+     * Called for every search served, also from the cache, but not for record lookups. Counts hits of prefetched pages and prefetches the next one.
+     */
+    public void served(final String format, Properties requestParameters, final Properties renderParameters) {
+
+        if (this.prefetched.remove(RequestKey.of(format, requestParameters, renderParameters)) != null
+                && this.cache.containsSearchResults(format, requestParameters, renderParameters)) {
+            this.hits.incrementAndGet();
+        }
+
+        String next = nextPage(requestParameters.getProperty("start"), this.maxStart);
+
+        if (next == null) {
+            return;
+        }
+
+        final Properties nextParameters = new Properties();
+        nextParameters.putAll(requestParameters);
+        nextParameters.setProperty("start", next);
+
+        final String key = RequestKey.of(format, nextParameters, renderParameters);
+
+        if (this.prefetched.containsKey(key) || this.cache.containsSearchResults(format, nextParameters, renderParameters)) {
+            return;
+        }
+
+        // the backend is busy with user requests
+        if (this.active.get() >= this.maxActive) {
+
+            this.skipped.incrementAndGet();
+            return;
+        }
+
+        this.prefetched.put(key, Boolean.TRUE);
+
+        try {
+
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch(format, nextParameters, renderParameters, key);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+
+            this.prefetched.remove(key);
+            this.skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the page after 'start' or null if it is beyond maxStart
+     */
+    static String nextPage(String start, int maxStart) {
+
+        int page = 1;
+
+        if (start != null && !start.trim().equals("")) {
+
+            try {
+                page = Integer.parseInt(start.trim());
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return page + 1 > maxStart ? null : Integer.toString(page + 1);
+    }
+
+    private void prefetch(String format, Properties requestParameters, Properties renderParameters, String key) {
+
+        try {
+
+            switch (format) {
+
+                case "html": {
+                    this.resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+                    break;
+                }
+                case "json": {
+                    this.resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+                    break;
+                }
+                default: {
+                    this.resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+                }
+            }
+
+            this.prefetches.incrementAndGet();
+        }
+        catch (Exception e) {
+
+            this.prefetched.remove(key);
+            this.logger.debug("[" + this.serviceName + "] " + "Prefetch failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+        this.active.incrementAndGet();
+        try {
+            return super.getSearchResultsAsHTML(requestParameters, renderParameters);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+        this.active.incrementAndGet();
+        try {
+            return super.getSearchResultsAsXML(requestParameters);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+        this.active.incrementAndGet();
+        try {
+            return super.getSearchResultsAsJSON(requestParameters);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        this.active.incrementAndGet();
+        try {
+            super.writeSearchResultsAsHTML(requestParameters, renderParameters, writer);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        this.active.incrementAndGet();
+        try {
+            super.writeSearchResultsAsXML(requestParameters, writer);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        this.active.incrementAndGet();
+        try {
+            super.writeSearchResultsAsJSON(requestParameters, writer);
+        }
+        finally {
+            this.active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> getSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+        this.active.incrementAndGet();
+
+        return this.getAsyncResourceDiscoveryService().getSearchResults(format, requestParameters, renderParameters).whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String result, Throwable throwable) {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestionsAsync(String prefix) {
+
+        return this.getAsyncResourceDiscoveryService().getSuggestionsAsync(prefix);
+    }
+
+    public long getPrefetches() {
+
+        return this.prefetches.get();
+    }
+
+    public long getHits() {
+
+        return this.hits.get();
+    }
+
+    public long getSkipped() {
+
+        return this.skipped.get();
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdownNow();
+    }
+}
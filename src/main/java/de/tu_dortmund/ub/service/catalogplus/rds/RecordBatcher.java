@@ -0,0 +1,273 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import de.tu_dortmund.ub.util.impl.DiskCache;
+import de.tu_dortmund.ub.util.impl.ResponseCache;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches records for the service 'getRecords': records are cached one by one, only the missing records are requested
+ * from the {@link RecordRetrievalService} in batches of 'service.records.batchsize'. The batches of a request are
+ * fetched concurrently on 'service.records.threads' threads; if they are all busy, the requesting thread fetches the
+ * batch itself. A failing batch does not fail the whole request as long as at least one record can be delivered, the
+ * result is marked as incomplete then.
+ */
+public class RecordBatcher implements Closeable {
+
+    private Logger logger = Logger.getLogger(RecordBatcher.class.getName());
+
+    private final RecordRetrievalService recordRetrievalService;
+    private final ResponseCache cache;
+    private final int batchSize;
+    private final String separator;
+    private final String serviceName;
+    private final ThreadPoolExecutor executor;
+
+    public RecordBatcher(RecordRetrievalService recordRetrievalService, Properties config) {
+
+        this.recordRetrievalService = recordRetrievalService;
+        this.serviceName = config.getProperty("service.name");
+
+        long maxBytes = Long.parseLong(config.getProperty("service.records.cache.maxbytes", "33554432"));
+        long ttl = Long.parseLong(config.getProperty("service.records.cache.ttl", "600"));
+
+        this.cache = new ResponseCache(maxBytes, ttl * 1000, ttl * 1000, -1, DiskCache.open(config, "records", ttl * 1000));
+        this.batchSize = Integer.parseInt(config.getProperty("service.records.batchsize", "20"));
+        this.separator = config.getProperty("service.records.separator", ",");
+
+        int threads = Integer.parseInt(config.getProperty("service.records.threads", "8"));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "rds-records-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+
+            // all threads busy: the requesting thread fetches the batch itself
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+
+                runnable.run();
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.logger.info("[" + this.serviceName + "] " + "Record cache: maxbytes = " + maxBytes + ", ttl = " + ttl + "s, batchsize = " + this.batchSize + ", threads = " + threads);
+    }
+
+    /**
+     * @return the distinct, non-empty ids of the parameter 'ids' in their original order
+     */
+    public List<String> splitIds(String ids) {
+
+        Set<String> result = new LinkedHashSet<String>();
+
+        for (String id : ids.split(Pattern.quote(this.separator))) {
+
+            id = id.trim();
+            if (!id.isEmpty()) {
+                result.add(id);
+            }
+        }
+
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * @return the records found in the order of the ids
+     * @throws RDSException if no record could be delivered because the backend failed
+     */
+    public Records getRecords(List<String> ids, Properties requestParameters) throws RDSException {
+
+        final Properties parameters = new Properties();
+        parameters.putAll(requestParameters);
+        parameters.remove("ids");
+
+        String context = RequestKey.of("record", parameters, null);
+
+        String[] records = new String[ids.size()];
+        List<String> missing = new ArrayList<String>();
+
+        for (int i = 0; i < ids.size(); i++) {
+
+            records[i] = this.cache.get(context + '\u0000' + ids.get(i));
+            if (records[i] == null) {
+                missing.add(ids.get(i));
+            }
+        }
+
+        // all batches but the first on the executor, the first one on this thread
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+
+        for (int from = 0; from < missing.size(); from += this.batchSize) {
+
+            final List<String> batch = missing.subList(from, Math.min(from + this.batchSize, missing.size()));
+            batches.add(batch);
+
+            if (from > 0) {
+
+                futures.add(this.executor.submit(new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() throws RDSException {
+                        return recordRetrievalService.getRecords(batch, parameters);
+                    }
+                }));
+            }
+        }
+
+        RDSException failure = null;
+
+        for (int b = 0; b < batches.size(); b++) {
+
+            Map<String, String> fetched;
+
+            try {
+
+                if (b == 0) {
+                    fetched = this.recordRetrievalService.getRecords(batches.get(0), parameters);
+                }
+                else {
+                    fetched = get(futures.get(b - 1));
+                }
+            }
+            catch (RDSException e) {
+
+                this.logger.error("[" + this.serviceName + "] " + "Error while fetching records " + batches.get(b) + ": " + e.getMessage());
+                failure = e;
+                continue;
+            }
+
+            for (int i = 0; i < ids.size(); i++) {
+
+                String record = fetched.get(ids.get(i));
+                if (records[i] == null && record != null) {
+
+                    records[i] = record;
+                    this.cache.put(context + '\u0000' + ids.get(i), record);
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (String record : records) {
+            if (record != null) {
+                result.add(record);
+            }
+        }
+
+        if (result.isEmpty() && failure != null) {
+            throw failure;
+        }
+
+        return new Records(result, failure != null);
+    }
+
+    private static Map<String, String> get(Future<Map<String, String>> future) throws RDSException {
+
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+
+            if (e.getCause() instanceof RDSException) {
+                throw (RDSException) e.getCause();
+            }
+            throw new RDSException(e.getCause().getMessage(), e.getCause());
+        }
+        catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new RDSException("Interrupted while fetching records!", e);
+        }
+    }
+
+    public ResponseCache getCache() {
+
+        return this.cache;
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdown();
+
+        if (this.cache.getDiskCache() != null) {
+            this.cache.getDiskCache().close();
+        }
+    }
+
+    /**
+     * The records of a request. Incomplete if a batch could not be fetched: the response must not be stored by clients.
+     */
+    public static class Records {
+
+        private final List<String> records;
+        private final boolean incomplete;
+
+        Records(List<String> records, boolean incomplete) {
+
+            this.records = Collections.unmodifiableList(records);
+            this.incomplete = incomplete;
+        }
+
+        public List<String> getRecords() {
+
+            return this.records;
+        }
+
+        public boolean isIncomplete() {
+
+            return this.incomplete;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Record level access for {@link ResourceDiscoveryService} plugins. If the plugin implements this interface, the
+ * service 'getRecords' fetches and caches single records and only asks the plugin for the records it does not know yet.
+ *
+ * Records are passed around in the plugin's own representation (e.g. the XML of the discovery index) and rendered into
+ * the requested format afterwards.
+ */
+public interface RecordRetrievalService {
+
+    /**
+     * @param ids ids of the records to fetch
+     * @param requestParameters parameters of the request without 'ids'
+     * @return the records found by their id; ids without a record are missing
+     */
+    Map<String, String> getRecords(Collection<String> ids, Properties requestParameters) throws RDSException;
+
+    String getRecordsAsHTML(List<String> records, Properties requestParameters, Properties renderParameters) throws RDSException;
+
+    String getRecordsAsXML(List<String> records, Properties requestParameters) throws RDSException;
+
+    String getRecordsAsJSON(List<String> records, Properties requestParameters) throws RDSException;
+}
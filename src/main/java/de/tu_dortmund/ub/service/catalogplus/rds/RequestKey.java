@@ -0,0 +1,113 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Builds a canonical key for a RDS request from the output format and the request and render parameters, so that
+ * equivalent requests share cache entries.
+ */
+public final class RequestKey {
+
+    private static final char SEPARATOR = '\u0000';
+
+    private RequestKey() {
+    }
+
+    public static String of(String format, Properties requestParameters, Properties renderParameters) {
+
+        StringBuilder key = new StringBuilder(format);
+
+        append(key, "req", requestParameters);
+        // the rendering depends on language, access rights and mode
+        if (format.equals("html")) {
+            append(key, "render", renderParameters);
+        }
+
+        return key.toString();
+    }
+
+    public static String ofSuggestions(String prefix) {
+
+        return "suggest" + SEPARATOR + normalizeQuery(prefix);
+    }
+
+    private static void append(StringBuilder key, String section, Properties parameters) {
+
+        key.append(SEPARATOR).append(section);
+
+        if (parameters == null) {
+            return;
+        }
+
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (String name : parameters.stringPropertyNames()) {
+            sorted.put(name, normalize(name, parameters.getProperty(name)));
+        }
+
+        for (Map.Entry<String, String> parameter : sorted.entrySet()) {
+            key.append(SEPARATOR).append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+    }
+
+    private static String normalize(String name, String value) {
+
+        switch (name) {
+
+            case "q": {
+                return normalizeQuery(value);
+            }
+            case "fq": {
+                // filter queries are independent of their order
+                String[] filters = value.split(";");
+                for (int i = 0; i < filters.length; i++) {
+                    filters[i] = filters[i].trim();
+                }
+                Arrays.sort(filters);
+
+                StringBuilder fq = new StringBuilder();
+                for (String filter : filters) {
+                    if (fq.length() > 0) {
+                        fq.append(';');
+                    }
+                    fq.append(filter);
+                }
+                return fq.toString();
+            }
+            default: {
+                return value.trim();
+            }
+        }
+    }
+
+    private static String normalizeQuery(String query) {
+
+        return query.trim().replaceAll("\\s+", " ");
+    }
+}
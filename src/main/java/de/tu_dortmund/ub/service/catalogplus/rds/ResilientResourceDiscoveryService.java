@@ -0,0 +1,277 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import de.tu_dortmund.ub.util.impl.Bulkhead;
+import de.tu_dortmund.ub.util.impl.CircuitBreaker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Protects the service against a slow or failing {@link ResourceDiscoveryService} plugin. Calls of the operations
+ * 'search', 'getRecords' and 'typeahead' run in separate {@link Bulkhead}s with their own timeouts; a
+ * {@link CircuitBreaker} per operation fails fast while the operation is failing.
+ *
+ * Results are buffered in the bulkhead thread and written afterwards, so a timed out call never writes into the response.
+ */
+public class ResilientResourceDiscoveryService extends ResourceDiscoveryServiceDecorator implements Closeable {
+
+    public static final String[] OPERATIONS = { "search", "getRecords", "typeahead" };
+
+    private final Map<Bulkhead, CircuitBreaker> circuitBreakers = new HashMap<Bulkhead, CircuitBreaker>();
+    private final Bulkhead search;
+    private final Bulkhead getRecords;
+    private final Bulkhead typeahead;
+
+    public ResilientResourceDiscoveryService(ResourceDiscoveryService resourceDiscoveryService, Properties config) {
+
+        super(resourceDiscoveryService);
+
+        this.search = bulkhead(config, "search", 20, 10000);
+        this.getRecords = bulkhead(config, "getRecords", 10, 10000);
+        this.typeahead = bulkhead(config, "typeahead", 5, 2000);
+
+        for (Bulkhead bulkhead : new Bulkhead[] { this.search, this.getRecords, this.typeahead }) {
+
+            this.circuitBreakers.put(bulkhead, new CircuitBreaker(
+                    Integer.parseInt(config.getProperty("service.resilience.breaker.window", "20")),
+                    Double.parseDouble(config.getProperty("service.resilience.breaker.threshold", "0.5")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("service.resilience.breaker.open", "30")))));
+        }
+    }
+
+    private static Bulkhead bulkhead(Properties config, String operation, int threads, long timeout) {
+
+        return new Bulkhead(operation,
+                Integer.parseInt(config.getProperty("service.resilience." + operation + ".threads", Integer.toString(threads))),
+                Integer.parseInt(config.getProperty("service.resilience." + operation + ".queue", "0")),
+                Long.parseLong(config.getProperty("service.resilience." + operation + ".timeout", Long.toString(timeout))));
+    }
+
+    /**
+     * @return the record level access of the plugin, with 'getRecords' running in its bulkhead
+     */
+    public RecordRetrievalService decorate(final RecordRetrievalService recordRetrievalService) {
+
+        return new RecordRetrievalService() {
+
+            @Override
+            public Map<String, String> getRecords(final Collection<String> ids, final Properties requestParameters) throws RDSException {
+
+                return call(getRecords, new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() throws RDSException {
+                        return recordRetrievalService.getRecords(ids, requestParameters);
+                    }
+                });
+            }
+
+            @Override
+            public String getRecordsAsHTML(List<String> records, Properties requestParameters, Properties renderParameters) throws RDSException {
+
+                return recordRetrievalService.getRecordsAsHTML(records, requestParameters, renderParameters);
+            }
+
+            @Override
+            public String getRecordsAsXML(List<String> records, Properties requestParameters) throws RDSException {
+
+                return recordRetrievalService.getRecordsAsXML(records, requestParameters);
+            }
+
+            @Override
+            public String getRecordsAsJSON(List<String> records, Properties requestParameters) throws RDSException {
+
+                return recordRetrievalService.getRecordsAsJSON(records, requestParameters);
+            }
+        };
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(final Properties requestParameters, final Properties renderParameters) throws RDSException {
+
+        return this.call(this.bulkhead(requestParameters), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsXML(final Properties requestParameters) throws RDSException {
+
+        return this.call(this.bulkhead(requestParameters), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(final Properties requestParameters) throws RDSException {
+
+        return this.call(this.bulkhead(requestParameters), new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+            }
+        });
+    }
+
+    @Override
+    public String getSuggestions(final String prefix) throws RDSException {
+
+        return this.call(this.typeahead, new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return resourceDiscoveryService.getSuggestions(prefix);
+            }
+        });
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsHTML(requestParameters, renderParameters));
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsXML(requestParameters));
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        writer.write(this.getSearchResultsAsJSON(requestParameters));
+    }
+
+    /**
+     * @param operation one of {@link #OPERATIONS}
+     */
+    public CircuitBreaker getCircuitBreaker(String operation) {
+
+        return this.circuitBreakers.get(this.getBulkhead(operation));
+    }
+
+    /**
+     * @param operation one of {@link #OPERATIONS}
+     */
+    public Bulkhead getBulkhead(String operation) {
+
+        switch (operation) {
+
+            case "search": {
+                return this.search;
+            }
+            case "getRecords": {
+                return this.getRecords;
+            }
+            case "typeahead": {
+                return this.typeahead;
+            }
+            default: {
+                throw new IllegalArgumentException(operation);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+
+        this.search.close();
+        this.getRecords.close();
+        this.typeahead.close();
+    }
+
+    /**
+     * 'getRecords' without record level access is answered by the search methods.
+     */
+    private Bulkhead bulkhead(Properties requestParameters) {
+
+        String ids = requestParameters.getProperty("ids");
+
+        return ids != null && !ids.isEmpty() ? this.getRecords : this.search;
+    }
+
+    private <V> V call(Bulkhead bulkhead, Callable<V> callable) throws RDSException {
+
+        CircuitBreaker circuitBreaker = this.circuitBreakers.get(bulkhead);
+
+        long permit = circuitBreaker.allow();
+
+        if (permit == CircuitBreaker.REJECTED) {
+            throw new RDSException("Resource Discovery Service unavailable: circuit breaker for '" + bulkhead.getName() + "' open!");
+        }
+
+        try {
+
+            V result = bulkhead.execute(callable);
+            circuitBreaker.success(permit);
+
+            return result;
+        }
+        catch (RejectedExecutionException e) {
+
+            circuitBreaker.cancel(permit);
+            throw new RDSException("Resource Discovery Service overloaded: too many concurrent '" + bulkhead.getName() + "' requests!");
+        }
+        catch (TimeoutException e) {
+
+            circuitBreaker.failure(permit);
+            throw new RDSException("Resource Discovery Service: timeout after " + bulkhead.getTimeoutMillis() + " ms in '" + bulkhead.getName() + "'!");
+        }
+        catch (ExecutionException e) {
+
+            circuitBreaker.failure(permit);
+
+            if (e.getCause() instanceof RDSException) {
+                throw (RDSException) e.getCause();
+            }
+            throw new RDSException("Resource Discovery Service: " + e.getCause(), e.getCause());
+        }
+        catch (InterruptedException e) {
+
+            circuitBreaker.cancel(permit);
+            Thread.currentThread().interrupt();
+            throw new RDSException("Interrupted while waiting for the Resource Discovery Service!", e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * Base class for layers around a {@link ResourceDiscoveryService} plugin. All calls are passed to the wrapped service;
+ * subclasses override the calls they are interested in. The wrapped service is expected to be initialized already.
+ *
+ * Streaming calls are streamed by the wrapped service if it supports streaming, otherwise its result is written as a
+ * whole.
+ *
+ * Decorators also implementing {@link AsyncResourceDiscoveryService} pass its calls to the asynchronous API of the
+ * wrapped service; they are only used that way if every layer down to the plugin supports it, see
+ * {@link #isAsync(ResourceDiscoveryService)}.
+ */
+public abstract class ResourceDiscoveryServiceDecorator implements StreamingResourceDiscoveryService {
+
+    protected final ResourceDiscoveryService resourceDiscoveryService;
+
+    protected ResourceDiscoveryServiceDecorator(ResourceDiscoveryService resourceDiscoveryService) {
+
+        this.resourceDiscoveryService = resourceDiscoveryService;
+    }
+
+    public ResourceDiscoveryService getResourceDiscoveryService() {
+
+        return this.resourceDiscoveryService;
+    }
+
+    /**
+     * @return the wrapped service of a decorator used through {@link AsyncResourceDiscoveryService}
+     */
+    protected AsyncResourceDiscoveryService getAsyncResourceDiscoveryService() {
+
+        return (AsyncResourceDiscoveryService) this.resourceDiscoveryService;
+    }
+
+    /**
+     * @return true if the service and all services wrapped by it implement {@link AsyncResourceDiscoveryService}
+     */
+    public static boolean isAsync(ResourceDiscoveryService resourceDiscoveryService) {
+
+        while (resourceDiscoveryService instanceof ResourceDiscoveryServiceDecorator) {
+
+            if (!(resourceDiscoveryService instanceof AsyncResourceDiscoveryService)) {
+                return false;
+            }
+            resourceDiscoveryService = ((ResourceDiscoveryServiceDecorator) resourceDiscoveryService).getResourceDiscoveryService();
+        }
+
+        return resourceDiscoveryService instanceof AsyncResourceDiscoveryService;
+    }
+
+    @Override
+    public void init(Properties config) {
+
+        this.resourceDiscoveryService.init(config);
+    }
+
+    @Override
+    public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+        return this.resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters);
+    }
+
+    @Override
+    public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+        return this.resourceDiscoveryService.getSearchResultsAsXML(requestParameters);
+    }
+
+    @Override
+    public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+        return this.resourceDiscoveryService.getSearchResultsAsJSON(requestParameters);
+    }
+
+    @Override
+    public String getSuggestions(String prefix) throws RDSException {
+
+        return this.resourceDiscoveryService.getSuggestions(prefix);
+    }
+
+    @Override
+    public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+        if (this.resourceDiscoveryService instanceof StreamingResourceDiscoveryService) {
+            ((StreamingResourceDiscoveryService) this.resourceDiscoveryService).writeSearchResultsAsHTML(requestParameters, renderParameters, writer);
+        }
+        else {
+            writer.write(this.resourceDiscoveryService.getSearchResultsAsHTML(requestParameters, renderParameters));
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        if (this.resourceDiscoveryService instanceof StreamingResourceDiscoveryService) {
+            ((StreamingResourceDiscoveryService) this.resourceDiscoveryService).writeSearchResultsAsXML(requestParameters, writer);
+        }
+        else {
+            writer.write(this.resourceDiscoveryService.getSearchResultsAsXML(requestParameters));
+        }
+    }
+
+    @Override
+    public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+        if (this.resourceDiscoveryService instanceof StreamingResourceDiscoveryService) {
+            ((StreamingResourceDiscoveryService) this.resourceDiscoveryService).writeSearchResultsAsJSON(requestParameters, writer);
+        }
+        else {
+            writer.write(this.resourceDiscoveryService.getSearchResultsAsJSON(requestParameters));
+        }
+    }
+}
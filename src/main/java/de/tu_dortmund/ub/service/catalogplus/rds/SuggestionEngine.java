@@ -0,0 +1,143 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers typeahead requests from a local {@link SuggestionIndex}. The index is built from the term dump
+ * 'service.typeahead.index' and rebuilt in the background whenever the file changes. Prefixes without local
+ * completions are left to {@link ResourceDiscoveryService#getSuggestions(String)}.
+ */
+public class SuggestionEngine implements Closeable {
+
+    private Logger logger = Logger.getLogger(SuggestionEngine.class.getName());
+
+    private final String serviceName;
+    private final File file;
+    private final int size;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile SuggestionIndex index;
+    private long lastModified = 0;
+
+    public SuggestionEngine(Properties config) {
+
+        this.serviceName = config.getProperty("service.name");
+        this.file = new File(config.getProperty("service.typeahead.index"));
+        this.size = Integer.parseInt(config.getProperty("service.typeahead.size", "10"));
+
+        this.reload();
+
+        long interval = Long.parseLong(config.getProperty("service.typeahead.reload", "300"));
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "typeahead-reload");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reload();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the suggestions as JSON array or null if the prefix has no local completions
+     */
+    public String getSuggestions(String prefix) {
+
+        SuggestionIndex index = this.index;
+
+        if (index == null) {
+            return null;
+        }
+
+        List<String> suggestions = index.lookup(prefix);
+
+        if (suggestions.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return this.mapper.writeValueAsString(suggestions);
+        }
+        catch (JsonProcessingException e) {
+
+            this.logger.error("[" + this.serviceName + "] " + "Error while writing suggestions: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void reload() {
+
+        try {
+
+            long modified = this.file.lastModified();
+
+            if (modified == 0 || modified == this.lastModified) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            SuggestionIndex index = SuggestionIndex.load(this.file.getPath(), this.size);
+
+            this.index = index;
+            this.lastModified = modified;
+
+            this.logger.info("[" + this.serviceName + "] " + "Typeahead index '" + this.file + "' loaded: " + index.getTermCount() + " terms in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        catch (IOException | RuntimeException e) {
+
+            this.logger.error("[" + this.serviceName + "] " + "Error while loading typeahead index '" + this.file + "': " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+
+        this.scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable prefix index over weighted terms. Terms are kept in arrays sorted by their normalized form, so that all
+ * completions of a prefix form a contiguous range. The best completions of short prefixes - the ones with the largest
+ * ranges - are computed when the index is built.
+ */
+public class SuggestionIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final int PRECOMPUTED_PREFIX_LENGTH = 3;
+
+    private final String[] keys;
+    private final String[] terms;
+    private final long[] weights;
+    private final int size;
+    private final Map<String, int[]> precomputed = new HashMap<String, int[]>();
+
+    private SuggestionIndex(final List<String> keys, final List<String> terms, final List<Long> weights, int size) {
+
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys.get(a).compareTo(keys.get(b));
+            }
+        });
+
+        this.keys = new String[order.length];
+        this.terms = new String[order.length];
+        this.weights = new long[order.length];
+        this.size = size;
+
+        for (int i = 0; i < order.length; i++) {
+            this.keys[i] = keys.get(order[i]);
+            this.terms[i] = terms.get(order[i]);
+            this.weights[i] = weights.get(order[i]);
+        }
+
+        for (int i = 0; i < this.keys.length; i++) {
+
+            for (int length = 1; length <= PRECOMPUTED_PREFIX_LENGTH && length <= this.keys[i].length(); length++) {
+
+                String prefix = this.keys[i].substring(0, length);
+                if (!this.precomputed.containsKey(prefix)) {
+                    this.precomputed.put(prefix, this.select(prefix));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a term dump with one term per line, optionally followed by a tab and its weight.
+     *
+     * @param size number of suggestions per prefix
+     */
+    public static SuggestionIndex load(String file, int size) throws IOException {
+
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        List<String> keys = new ArrayList<String>();
+        List<String> terms = new ArrayList<String>();
+        List<Long> weights = new ArrayList<Long>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                String term = line;
+                long weight = 1;
+
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    term = line.substring(0, tab);
+                    try {
+                        weight = Long.parseLong(line.substring(tab + 1).trim());
+                    }
+                    catch (NumberFormatException e) {
+                        term = line;
+                    }
+                }
+
+                term = term.trim();
+                if (term.isEmpty()) {
+                    continue;
+                }
+
+                String key = normalize(term);
+
+                // duplicates after normalization: keep the spelling with the highest weight, sum up the weights
+                Integer position = positions.get(key);
+                if (position == null) {
+                    positions.put(key, keys.size());
+                    keys.add(key);
+                    terms.add(term);
+                    weights.add(weight);
+                }
+                else {
+                    if (weight > weights.get(position)) {
+                        terms.set(position, term);
+                    }
+                    weights.set(position, weights.get(position) + weight);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return new SuggestionIndex(keys, terms, weights, size);
+    }
+
+    public static String normalize(String term) {
+
+        String normalized = Normalizer.normalize(term.toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        normalized = DIACRITICS.matcher(normalized).replaceAll("");
+
+        return normalized.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return the best completions of the prefix ordered by weight, empty if no term starts with the prefix
+     */
+    public List<String> lookup(String prefix) {
+
+        String key = normalize(prefix);
+
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int[] selection = this.precomputed.get(key);
+        if (selection == null) {
+            selection = key.length() <= PRECOMPUTED_PREFIX_LENGTH ? new int[0] : this.select(key);
+        }
+
+        List<String> result = new ArrayList<String>(selection.length);
+        for (int position : selection) {
+            result.add(this.terms[position]);
+        }
+
+        return result;
+    }
+
+    public int getTermCount() {
+
+        return this.keys.length;
+    }
+
+    private int[] select(String prefix) {
+
+        int from = this.lowerBound(prefix);
+        int to = this.lowerBound(prefix + Character.MAX_VALUE);
+
+        // keep the best 'size' positions, ordered by weight
+        int[] best = new int[Math.min(this.size, to - from)];
+        int count = 0;
+
+        for (int i = from; i < to; i++) {
+
+            if (count < best.length) {
+                best[count++] = i;
+            }
+            else if (this.weights[i] > this.weights[best[count - 1]]) {
+                best[count - 1] = i;
+            }
+            else {
+                continue;
+            }
+
+            for (int j = count - 1; j > 0 && this.weights[best[j]] > this.weights[best[j - 1]]; j--) {
+                int tmp = best[j];
+                best[j] = best[j - 1];
+                best[j - 1] = tmp;
+            }
+        }
+
+        return best;
+    }
+
+    private int lowerBound(String key) {
+
+        int low = 0;
+        int high = this.keys.length;
+
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (this.keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
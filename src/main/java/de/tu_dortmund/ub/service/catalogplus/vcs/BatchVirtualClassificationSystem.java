@@ -0,0 +1,45 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.vcs;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Optional extension of {@link VirtualClassificationSystem} plugins that resolve several notations at once, e.g. for
+ * breadcrumb trails and sibling lists. Plugins without it are asked for each notation; see {@link ClassBatch}.
+ */
+public interface BatchVirtualClassificationSystem {
+
+    /**
+     * @return the JSON renderings by notation; unknown notations are missing
+     */
+    Map<String, String> getClassesAsJSON(Collection<String> notations) throws VCSException;
+
+    /**
+     * @return the XML renderings by notation; unknown notations are missing
+     */
+    Map<String, String> getClassesAsXML(Collection<String> notations) throws VCSException;
+}
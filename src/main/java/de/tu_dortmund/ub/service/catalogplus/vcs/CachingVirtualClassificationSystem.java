@@ -0,0 +1,326 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.vcs;
+
+import de.tu_dortmund.ub.util.impl.ResponseCache;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the renderings of a {@link VirtualClassificationSystem}: HTML per notation, language and access group, JSON
+ * and XML per notation. If the plugin implements {@link EnumerableVirtualClassificationSystem}, the JSON and XML
+ * renderings of all notations are computed in the background at startup. The cache is invalidated and preloaded again
+ * by {@link #reload()} or whenever the modification time of the trigger file changes.
+ */
+public class CachingVirtualClassificationSystem implements VirtualClassificationSystem, BatchVirtualClassificationSystem, Closeable {
+
+    private Logger logger = Logger.getLogger(CachingVirtualClassificationSystem.class.getName());
+
+    private final VirtualClassificationSystem virtualClassificationSystem;
+    private final EnumerableVirtualClassificationSystem enumerable;
+    private final String serviceName;
+    private final ResponseCache cache;
+    private final File trigger;
+    private final ScheduledExecutorService scheduler;
+
+    // entries computed before an invalidation are not stored
+    private final AtomicLong generation = new AtomicLong();
+    private long lastModified;
+
+    /**
+     * @param virtualClassificationSystem the plugin or a decorator of it
+     * @param enumerable the plugin if it implements {@link EnumerableVirtualClassificationSystem}, otherwise null
+     */
+    public CachingVirtualClassificationSystem(VirtualClassificationSystem virtualClassificationSystem, EnumerableVirtualClassificationSystem enumerable, Properties config) {
+
+        this.virtualClassificationSystem = virtualClassificationSystem;
+        this.serviceName = config.getProperty("service.name");
+
+        long maxBytes = Long.parseLong(config.getProperty("service.vcs.cache.maxbytes", "16777216"));
+        long ttl = Long.parseLong(config.getProperty("service.vcs.cache.ttl", "86400"));
+
+        this.cache = new ResponseCache(maxBytes, ttl * 1000);
+
+        this.enumerable = enumerable;
+
+        String trigger = config.getProperty("service.vcs.cache.trigger");
+        this.trigger = trigger != null && !trigger.equals("") ? new File(trigger) : null;
+        this.lastModified = this.trigger != null ? this.trigger.lastModified() : 0;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "vcs-preload");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                preload();
+            }
+        });
+
+        if (this.trigger != null) {
+
+            long interval = Long.parseLong(config.getProperty("service.vcs.cache.reload", "60"));
+
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkTrigger();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+
+        this.logger.info("[" + this.serviceName + "] " + "VCS cache: maxbytes = " + maxBytes + ", ttl = " + ttl + "s");
+    }
+
+    @Override
+    public void init(Properties config) {
+
+        this.virtualClassificationSystem.init(config);
+    }
+
+    @Override
+    public String getClassAsHTML(String notation, Properties renderParameters) throws VCSException {
+
+        // debug output is never cached
+        if (Boolean.parseBoolean(renderParameters.getProperty("debug"))) {
+            return this.virtualClassificationSystem.getClassAsHTML(notation, renderParameters);
+        }
+
+        String key = "html|" + notation + "|" + renderParameters.getProperty("lang") + "|" + renderParameters.getProperty("isTUintern") + "|" + renderParameters.getProperty("isUBintern");
+        long generation = this.generation.get();
+
+        String result = this.cache.get(key);
+        if (result == null) {
+
+            result = this.virtualClassificationSystem.getClassAsHTML(notation, renderParameters);
+            this.put(key, result, generation);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String getClassAsXML(String notation) throws VCSException {
+
+        String key = "xml|" + notation;
+        long generation = this.generation.get();
+
+        String result = this.cache.get(key);
+        if (result == null) {
+
+            result = this.virtualClassificationSystem.getClassAsXML(notation);
+            this.put(key, result, generation);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String getClassAsJSON(String notation) throws VCSException {
+
+        String key = "json|" + notation;
+        long generation = this.generation.get();
+
+        String result = this.cache.get(key);
+        if (result == null) {
+
+            result = this.virtualClassificationSystem.getClassAsJSON(notation);
+            this.put(key, result, generation);
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getClassesAsJSON(Collection<String> notations) throws VCSException {
+
+        return this.getClasses("json", notations);
+    }
+
+    @Override
+    public Map<String, String> getClassesAsXML(Collection<String> notations) throws VCSException {
+
+        return this.getClasses("xml", notations);
+    }
+
+    /**
+     * Invalidates all renderings, e.g. after an update of the classification, and computes them again in the
+     * background.
+     */
+    public void reload() {
+
+        this.generation.incrementAndGet();
+        this.cache.clear();
+
+        this.logger.info("[" + this.serviceName + "] " + "VCS cache invalidated");
+
+        try {
+            this.scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    preload();
+                }
+            });
+        }
+        catch (RuntimeException e) {
+
+            // closed
+        }
+    }
+
+    public ResponseCache getCache() {
+
+        return this.cache;
+    }
+
+    @Override
+    public void close() {
+
+        this.scheduler.shutdownNow();
+    }
+
+    private void put(String key, String result, long generation) {
+
+        if (result != null && generation == this.generation.get()) {
+            this.cache.put(key, result);
+        }
+    }
+
+    private Map<String, String> getClasses(String format, Collection<String> notations) throws VCSException {
+
+        long generation = this.generation.get();
+
+        // keeps the order of the notations
+        Map<String, String> classes = new LinkedHashMap<String, String>();
+        List<String> misses = new ArrayList<String>();
+
+        for (String notation : notations) {
+
+            if (classes.containsKey(notation)) {
+                continue;
+            }
+
+            String result = this.cache.get(format + "|" + notation);
+            classes.put(notation, result);
+
+            if (result == null) {
+                misses.add(notation);
+            }
+        }
+
+        // the missing notations with one call of the plugin
+        if (!misses.isEmpty()) {
+
+            Map<String, String> results = format.equals("json") ? ClassBatch.getClassesAsJSON(this.virtualClassificationSystem, misses) : ClassBatch.getClassesAsXML(this.virtualClassificationSystem, misses);
+
+            for (Map.Entry<String, String> entry : results.entrySet()) {
+
+                this.put(format + "|" + entry.getKey(), entry.getValue(), generation);
+                classes.put(entry.getKey(), entry.getValue());
+            }
+
+            Iterator<String> iterator = classes.values().iterator();
+            while (iterator.hasNext()) {
+
+                if (iterator.next() == null) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    private void preload() {
+
+        if (this.enumerable == null) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long generation = this.generation.get();
+        int errors = 0;
+
+        Collection<String> notations;
+        try {
+            notations = this.enumerable.getNotations();
+        }
+        catch (VCSException | RuntimeException e) {
+
+            this.logger.error("[" + this.serviceName + "] " + "Error while reading the notations: " + e.getMessage(), e);
+            return;
+        }
+
+        for (String notation : notations) {
+
+            if (Thread.currentThread().isInterrupted() || generation != this.generation.get()) {
+                return;
+            }
+
+            try {
+                this.put("json|" + notation, this.virtualClassificationSystem.getClassAsJSON(notation), generation);
+                this.put("xml|" + notation, this.virtualClassificationSystem.getClassAsXML(notation), generation);
+            }
+            catch (VCSException | RuntimeException e) {
+
+                errors++;
+            }
+        }
+
+        this.logger.info("[" + this.serviceName + "] " + "VCS cache preloaded: " + notations.size() + " notations, " + errors + " errors in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void checkTrigger() {
+
+        long modified = this.trigger.lastModified();
+
+        if (modified != 0 && modified != this.lastModified) {
+
+            this.lastModified = modified;
+            this.reload();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.vcs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves several notations with the batch method of the plugin if it has one, otherwise notation by notation, and
+ * combines the renderings into one document.
+ */
+public final class ClassBatch {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Pattern XML_DECLARATION = Pattern.compile("^\\s*<\\?xml[^>]*\\?>\\s*");
+
+    private ClassBatch() {
+    }
+
+    /**
+     * @return the JSON renderings by notation in the order of the notations; unknown notations are missing
+     */
+    public static Map<String, String> getClassesAsJSON(VirtualClassificationSystem virtualClassificationSystem, Collection<String> notations) throws VCSException {
+
+        if (virtualClassificationSystem instanceof BatchVirtualClassificationSystem) {
+            return ((BatchVirtualClassificationSystem) virtualClassificationSystem).getClassesAsJSON(notations);
+        }
+
+        Map<String, String> classes = new LinkedHashMap<String, String>();
+
+        for (String notation : notations) {
+
+            String result = virtualClassificationSystem.getClassAsJSON(notation);
+
+            if (result != null) {
+                classes.put(notation, result);
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * @return the XML renderings by notation in the order of the notations; unknown notations are missing
+     */
+    public static Map<String, String> getClassesAsXML(VirtualClassificationSystem virtualClassificationSystem, Collection<String> notations) throws VCSException {
+
+        if (virtualClassificationSystem instanceof BatchVirtualClassificationSystem) {
+            return ((BatchVirtualClassificationSystem) virtualClassificationSystem).getClassesAsXML(notations);
+        }
+
+        Map<String, String> classes = new LinkedHashMap<String, String>();
+
+        for (String notation : notations) {
+
+            String result = virtualClassificationSystem.getClassAsXML(notation);
+
+            if (result != null) {
+                classes.put(notation, result);
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * @return a JSON object with the notations as keys and their renderings as values
+     */
+    public static String toJSON(Map<String, String> classes) throws IOException {
+
+        StringWriter writer = new StringWriter();
+
+        JsonGenerator generator = JSON_FACTORY.createGenerator(writer);
+        generator.writeStartObject();
+
+        for (Map.Entry<String, String> entry : classes.entrySet()) {
+
+            generator.writeFieldName(entry.getKey());
+            generator.writeRawValue(entry.getValue());
+        }
+
+        generator.writeEndObject();
+        generator.close();
+
+        return writer.toString();
+    }
+
+    /**
+     * @return the renderings without their XML declarations in a 'classes' element
+     */
+    public static String toXML(Map<String, String> classes) {
+
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<classes>\n");
+
+        for (String result : classes.values()) {
+
+            builder.append(XML_DECLARATION.matcher(result).replaceFirst("").trim()).append('\n');
+        }
+
+        return builder.append("</classes>").toString();
+    }
+}
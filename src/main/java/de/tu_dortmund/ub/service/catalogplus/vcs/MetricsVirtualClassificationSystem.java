@@ -0,0 +1,141 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.service.catalogplus.vcs;
+
+import de.tu_dortmund.ub.util.impl.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Records the time spent in the {@link VirtualClassificationSystem} plugin and its failures.
+ */
+public class MetricsVirtualClassificationSystem implements VirtualClassificationSystem, BatchVirtualClassificationSystem {
+
+    public static final String DURATION = "catalogplus_backend_duration_seconds";
+    public static final String ERRORS = "catalogplus_backend_errors_total";
+
+    private final VirtualClassificationSystem virtualClassificationSystem;
+    private final Metrics metrics;
+
+    public MetricsVirtualClassificationSystem(VirtualClassificationSystem virtualClassificationSystem, Metrics metrics) {
+
+        this.virtualClassificationSystem = virtualClassificationSystem;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void init(Properties config) {
+
+        this.virtualClassificationSystem.init(config);
+    }
+
+    @Override
+    public String getClassAsHTML(String notation, Properties renderParameters) throws VCSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = this.virtualClassificationSystem.getClassAsHTML(notation, renderParameters);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("class", "html", start, success);
+        }
+    }
+
+    @Override
+    public String getClassAsXML(String notation) throws VCSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = this.virtualClassificationSystem.getClassAsXML(notation);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("class", "xml", start, success);
+        }
+    }
+
+    @Override
+    public String getClassAsJSON(String notation) throws VCSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = this.virtualClassificationSystem.getClassAsJSON(notation);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("class", "json", start, success);
+        }
+    }
+
+    @Override
+    public Map<String, String> getClassesAsJSON(Collection<String> notations) throws VCSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Map<String, String> result = ClassBatch.getClassesAsJSON(this.virtualClassificationSystem, notations);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("classes", "json", start, success);
+        }
+    }
+
+    @Override
+    public Map<String, String> getClassesAsXML(Collection<String> notations) throws VCSException {
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Map<String, String> result = ClassBatch.getClassesAsXML(this.virtualClassificationSystem, notations);
+            success = true;
+            return result;
+        }
+        finally {
+            this.record("classes", "xml", start, success);
+        }
+    }
+
+    private void record(String operation, String format, long start, boolean success) {
+
+        String labels = Metrics.labels("system", "vcs", "operation", operation, "format", format);
+
+        this.metrics.observe(DURATION, labels, System.nanoTime() - start);
+
+        if (!success) {
+            this.metrics.increment(ERRORS, labels);
+        }
+    }
+}
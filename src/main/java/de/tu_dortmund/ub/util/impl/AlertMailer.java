@@ -0,0 +1,304 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends alert mails in the background. Callers only enqueue; a single sender thread mails the first occurrence of an
+ * error signature at once and counts repeats within 'service.mailer.window' (in s). Repeats are reported in one digest
+ * mail every 'service.mailer.digest' (in s). If the queue ('service.mailer.queue') is full, alerts are dropped.
+ */
+public class AlertMailer implements Closeable {
+
+    private Logger logger = Logger.getLogger(AlertMailer.class.getName());
+
+    private final String serviceName;
+    private final Sink sink;
+    private final Clock clock;
+    private final BlockingQueue<Alert> queue;
+    private final long window;
+    private final long digestInterval;
+    private final Thread sender;
+
+    // only accessed by the sender thread
+    private final Map<String, Signature> signatures = new LinkedHashMap<String, Signature>();
+    private long nextDigest;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public AlertMailer(final Mailer mailer, Properties config) {
+
+        this(new Sink() {
+            @Override
+            public void postMail(String subject, String message) throws Exception {
+                mailer.postMail(subject, message);
+            }
+        }, config, Clock.systemUTC(), true);
+    }
+
+    /**
+     * @param start false to leave the queue alone and call {@link #handle(Alert)} and {@link #sendDigest()} directly
+     */
+    AlertMailer(Sink sink, Properties config, Clock clock, boolean start) {
+
+        this.serviceName = config.getProperty("service.name");
+        this.sink = sink;
+        this.clock = clock;
+        this.queue = new ArrayBlockingQueue<Alert>(Integer.parseInt(config.getProperty("service.mailer.queue", "100")));
+        this.window = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("service.mailer.window", "300")));
+        this.digestInterval = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("service.mailer.digest", "900")));
+        this.nextDigest = clock.millis() + this.digestInterval;
+
+        if (!start) {
+
+            this.sender = null;
+            return;
+        }
+
+        this.sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                send();
+            }
+        }, "alert-mailer");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Never blocks.
+     *
+     * @param subject also the signature of the alert
+     * @param message details; quoted values like request URLs are ignored for the signature
+     */
+    public void alert(String subject, String message) {
+
+        if (this.closed || !this.queue.offer(new Alert(subject, message, this.clock.millis()))) {
+
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    public long getSent() {
+
+        return this.sent.get();
+    }
+
+    public long getSuppressed() {
+
+        return this.suppressed.get();
+    }
+
+    public long getDropped() {
+
+        return this.dropped.get();
+    }
+
+    @Override
+    public void close() {
+
+        this.closed = true;
+
+        if (this.sender == null) {
+            return;
+        }
+        this.sender.interrupt();
+
+        try {
+            this.sender.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send() {
+
+        while (true) {
+
+            try {
+
+                Alert alert = this.queue.poll(Math.max(1, this.nextDigest - this.clock.millis()), TimeUnit.MILLISECONDS);
+
+                if (alert != null) {
+                    this.handle(alert);
+                }
+                if (this.clock.millis() >= this.nextDigest) {
+                    this.sendDigest();
+                }
+            }
+            catch (InterruptedException e) {
+
+                // report what is left before shutting down
+                List<Alert> alerts = new ArrayList<Alert>();
+                this.queue.drainTo(alerts);
+                for (Alert alert : alerts) {
+                    this.handle(alert);
+                }
+                this.sendDigest();
+
+                return;
+            }
+            catch (RuntimeException e) {
+
+                this.logger.error("[" + this.serviceName + "] " + "Error in alert mailer: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    void handle(Alert alert) {
+
+        String key = signature(alert.subject, alert.message);
+        Signature signature = this.signatures.get(key);
+
+        if (signature == null) {
+
+            this.signatures.put(key, new Signature(alert));
+        }
+        else if (alert.time - signature.first < this.window) {
+
+            signature.repeats++;
+            signature.last = alert.time;
+            this.suppressed.incrementAndGet();
+            return;
+        }
+        else {
+
+            // window expired: mail again, pending repeats stay for the digest
+            signature.first = alert.time;
+        }
+
+        this.post(alert.subject, alert.message);
+    }
+
+    void sendDigest() {
+
+        this.nextDigest = this.clock.millis() + this.digestInterval;
+
+        StringBuilder digest = new StringBuilder();
+        int total = 0;
+
+        for (Iterator<Signature> iterator = this.signatures.values().iterator(); iterator.hasNext(); ) {
+
+            Signature signature = iterator.next();
+
+            if (signature.repeats > 0) {
+
+                digest.append(signature.repeats).append(" x ").append(signature.alert.subject)
+                        .append(" (last: ").append(new Date(signature.last)).append(")\n")
+                        .append(signature.alert.message).append("\n\n");
+
+                total += signature.repeats;
+                signature.repeats = 0;
+            }
+
+            if (this.clock.millis() - signature.first >= this.window) {
+                iterator.remove();
+            }
+        }
+
+        if (total > 0) {
+            this.post("[" + this.serviceName + "] " + total + " repeated alerts", digest.toString());
+        }
+    }
+
+    private void post(String subject, String message) {
+
+        try {
+
+            this.sink.postMail(subject, message);
+            this.sent.incrementAndGet();
+        }
+        catch (Exception e) {
+
+            this.logger.error("[" + this.serviceName + "] " + "Error while sending alert '" + subject + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Quoted values - request URLs, parameters - differ between occurrences of the same error.
+     */
+    static String signature(String subject, String message) {
+
+        return subject + "\u0000" + (message == null ? "" : message.replaceAll("'[^']*'", "''"));
+    }
+
+    /**
+     * Where the mails go; the {@link Mailer} outside of tests.
+     */
+    interface Sink {
+
+        void postMail(String subject, String message) throws Exception;
+    }
+
+    static class Alert {
+
+        final String subject;
+        final String message;
+        final long time;
+
+        Alert(String subject, String message, long time) {
+
+            this.subject = subject;
+            this.message = message;
+            this.time = time;
+        }
+    }
+
+    private static class Signature {
+
+        final Alert alert;
+        long first;
+        long last;
+        int repeats = 0;
+
+        Signature(Alert alert) {
+
+            this.alert = alert;
+            this.first = alert.time;
+            this.last = alert.time;
+        }
+    }
+}
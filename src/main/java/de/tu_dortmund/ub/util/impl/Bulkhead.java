@@ -0,0 +1,148 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs calls of one kind on their own small thread pool, so a slow operation cannot take the threads of the others.
+ * Callers wait at most the timeout for the result; calls beyond threads and queue are rejected at once.
+ */
+public class Bulkhead implements Closeable {
+
+    private final String name;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param name used for the thread names
+     * @param threads maximum number of concurrent calls
+     * @param queue number of calls waiting for a thread; 0 for none
+     * @param timeoutMillis maximum time a caller waits for the result
+     */
+    public Bulkhead(final String name, int threads, int queue, long timeoutMillis) {
+
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+
+        BlockingQueue<Runnable> workQueue = queue > 0 ? new ArrayBlockingQueue<Runnable>(queue) : new SynchronousQueue<Runnable>();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, workQueue, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "bulkhead-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     * @throws TimeoutException if the call did not finish in time; the call is interrupted
+     * @throws ExecutionException if the call failed
+     */
+    public <V> V execute(Callable<V> callable) throws ExecutionException, TimeoutException, InterruptedException {
+
+        Future<V> future;
+
+        try {
+            future = this.executor.submit(callable);
+        }
+        catch (RejectedExecutionException e) {
+
+            this.rejected.incrementAndGet();
+            throw e;
+        }
+
+        try {
+            return future.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+
+            this.timeouts.incrementAndGet();
+            future.cancel(true);
+            throw e;
+        }
+        catch (InterruptedException e) {
+
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    public String getName() {
+
+        return this.name;
+    }
+
+    public long getTimeoutMillis() {
+
+        return this.timeoutMillis;
+    }
+
+    public int getActiveCount() {
+
+        return this.executor.getActiveCount();
+    }
+
+    public long getRejected() {
+
+        return this.rejected.get();
+    }
+
+    public long getTimeouts() {
+
+        return this.timeouts.get();
+    }
+
+    @Override
+    public void close() {
+
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes everything written to the wrapped writer and keeps a copy of it.
+ */
+public class CapturingWriter extends Writer {
+
+    private final Writer writer;
+    private final StringBuilder copy = new StringBuilder();
+
+    public CapturingWriter(Writer writer) {
+
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+
+        this.writer.write(chars, offset, length);
+        this.copy.append(chars, offset, length);
+    }
+
+    @Override
+    public void write(String string, int offset, int length) throws IOException {
+
+        this.writer.write(string, offset, length);
+        this.copy.append(string, offset, offset + length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        this.writer.flush();
+    }
+
+    /**
+     * The wrapped writer is not closed, it belongs to the caller.
+     */
+    @Override
+    public void close() throws IOException {
+
+        this.writer.flush();
+    }
+
+    public String getCopy() {
+
+        return this.copy.toString();
+    }
+}
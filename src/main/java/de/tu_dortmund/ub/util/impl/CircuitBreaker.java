@@ -0,0 +1,208 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count based circuit breaker. The breaker opens when at least half of the window is filled and the share of failed
+ * calls among the last calls reaches the threshold. While open, calls are rejected. After the open duration a single
+ * trial call is let through; its outcome closes or reopens the breaker.
+ *
+ * Every state change starts a new generation. Outcomes are reported with the permit returned by {@link #allow()}, so
+ * calls admitted in an earlier generation - e.g. stragglers from before the breaker opened - are ignored.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Returned by {@link #allow()} if the call is rejected.
+     */
+    public static final long REJECTED = -1;
+
+    private final boolean[] outcomes;
+    private final double threshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int position = 0;
+    private int calls = 0;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialRunning = false;
+    private long generation = 0;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param window number of recent calls taken into account
+     * @param threshold share of failed calls that opens the breaker, between 0 and 1
+     * @param openMillis time the breaker stays open before a trial call
+     */
+    public CircuitBreaker(int window, double threshold, long openMillis) {
+
+        this.outcomes = new boolean[window];
+        this.threshold = threshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return the permit to report the outcome of the call with or {@link #REJECTED} if the call may not be made
+     */
+    public synchronized long allow() {
+
+        switch (this.state) {
+
+            case CLOSED: {
+                return this.generation;
+            }
+            case OPEN: {
+
+                if (System.nanoTime() - this.openedAt >= this.openNanos) {
+
+                    this.state = State.HALF_OPEN;
+                    this.generation++;
+                    this.trialRunning = true;
+                    return this.generation;
+                }
+                break;
+            }
+            default: {
+
+                if (!this.trialRunning) {
+
+                    this.trialRunning = true;
+                    return this.generation;
+                }
+            }
+        }
+
+        this.rejected.incrementAndGet();
+        return REJECTED;
+    }
+
+    public synchronized void success(long permit) {
+
+        if (permit != this.generation) {
+            return;
+        }
+
+        if (this.state == State.HALF_OPEN) {
+
+            this.reset();
+            this.state = State.CLOSED;
+            this.generation++;
+        }
+        else {
+            this.record(false);
+        }
+    }
+
+    public synchronized void failure(long permit) {
+
+        if (permit != this.generation) {
+            return;
+        }
+
+        if (this.state == State.HALF_OPEN) {
+
+            this.open();
+        }
+        else {
+
+            this.record(true);
+
+            if (this.state == State.CLOSED && this.calls >= (this.outcomes.length + 1) / 2 && this.failures >= this.threshold * this.calls) {
+                this.open();
+            }
+        }
+    }
+
+    /**
+     * The allowed call was not made, e.g. because it was rejected elsewhere.
+     */
+    public synchronized void cancel(long permit) {
+
+        if (this.state == State.HALF_OPEN && permit == this.generation) {
+            this.trialRunning = false;
+        }
+    }
+
+    public synchronized State getState() {
+
+        return this.state;
+    }
+
+    public long getRejected() {
+
+        return this.rejected.get();
+    }
+
+    public long getOpened() {
+
+        return this.opened.get();
+    }
+
+    private void record(boolean failure) {
+
+        if (this.calls == this.outcomes.length) {
+
+            if (this.outcomes[this.position]) {
+                this.failures--;
+            }
+        }
+        else {
+            this.calls++;
+        }
+
+        this.outcomes[this.position] = failure;
+        if (failure) {
+            this.failures++;
+        }
+
+        this.position = (this.position + 1) % this.outcomes.length;
+    }
+
+    private void open() {
+
+        this.reset();
+        this.state = State.OPEN;
+        this.generation++;
+        this.openedAt = System.nanoTime();
+        this.opened.incrementAndGet();
+    }
+
+    private void reset() {
+
+        this.position = 0;
+        this.calls = 0;
+        this.failures = 0;
+        this.trialRunning = false;
+    }
+}
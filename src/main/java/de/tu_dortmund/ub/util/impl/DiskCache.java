@@ -0,0 +1,596 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Second level of a {@link ResponseCache} on local disk, so that cached results survive a restart and large working
+ * sets are kept outside the heap. Entries are appended to memory-mapped segment files of 'service.cache.disk.segment'
+ * bytes. Only an index from the MD5 of the key to the latest entry is kept on the heap; it is rebuilt from the segments
+ * on start.
+ *
+ * Every 'service.cache.disk.compact' (in s) the live entries of segments that are mostly overwritten or expired are
+ * copied to the end of the log and the segments are deleted. If the segments exceed 'service.cache.disk.maxbytes', the
+ * oldest are deleted.
+ */
+public class DiskCache implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // entry: magic, length of the content, created, MD5 of the key, CRC32 of the content, content in UTF-8
+    private static final int MAGIC = 0x43504443;
+    private static final int HEADER = 4 + 4 + 8 + 16 + 4;
+
+    private Logger logger = Logger.getLogger(DiskCache.class.getName());
+
+    private final String serviceName;
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final long retention;
+
+    // by number, the oldest first; the last one is written to
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final Map<String, Location> index = new HashMap<String, Location>();
+
+    // reads of the mapped segments share the read lock, changes of the segments or the index take the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ScheduledExecutorService compactor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private boolean closed = false;
+
+    /**
+     * @param directory the segment files, created if missing
+     * @param retention age in milliseconds after which entries are dropped
+     */
+    public DiskCache(File directory, long retention, Properties config) throws IOException {
+
+        this.serviceName = config.getProperty("service.name");
+        this.directory = directory;
+        this.segmentSize = Integer.parseInt(config.getProperty("service.cache.disk.segment", "67108864"));
+        this.maxBytes = Long.parseLong(config.getProperty("service.cache.disk.maxbytes", "1073741824"));
+        this.retention = retention;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Directory '" + directory + "' not available!");
+        }
+
+        this.load();
+
+        long interval = Long.parseLong(config.getProperty("service.cache.disk.compact", "300"));
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "disk-cache-compact");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    compact();
+                }
+                catch (Exception e) {
+                    logger.error("[" + serviceName + "] " + "Compaction of '" + DiskCache.this.directory + "' failed: " + e.getMessage(), e);
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+
+        this.logger.info("[" + this.serviceName + "] " + "Disk cache '" + directory + "': " + this.index.size() + " entries in " + this.segments.size() + " segments");
+    }
+
+    /**
+     * @param name subdirectory of 'service.cache.disk' for this cache
+     * @return the disk cache or null if 'service.cache.disk' is not configured or not usable
+     */
+    public static DiskCache open(Properties config, String name, long retention) {
+
+        String directory = config.getProperty("service.cache.disk");
+
+        if (directory == null || directory.equals("")) {
+            return null;
+        }
+
+        try {
+            return new DiskCache(new File(directory, name), retention, config);
+        }
+        catch (IOException e) {
+
+            Logger.getLogger(DiskCache.class.getName()).error("[" + config.getProperty("service.name") + "] " + "Disk cache '" + name + "' not available: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segments. Reading a segment stops at the first incomplete entry.
+     */
+    private void load() throws IOException {
+
+        File[] files = this.directory.listFiles();
+
+        if (files != null) {
+
+            for (File file : files) {
+
+                if (file.getName().matches("segment-\\d+\\.dat")) {
+
+                    int number = Integer.parseInt(file.getName().substring(8, file.getName().length() - 4));
+                    this.segments.put(number, new Segment(number, file, file.length()));
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (Segment segment : this.segments.values()) {
+
+            int position = 0;
+
+            while (position + HEADER <= segment.buffer.capacity() && segment.buffer.getInt(position) == MAGIC) {
+
+                int length = segment.buffer.getInt(position + 4);
+
+                if (length < 0 || position + HEADER + length > segment.buffer.capacity()) {
+                    break;
+                }
+
+                long created = segment.buffer.getLong(position + 8);
+                byte[] digest = new byte[16];
+                ByteBuffer record = segment.buffer.duplicate();
+                record.position(position + 16);
+                record.get(digest);
+                int crc = record.getInt();
+
+                byte[] content = new byte[length];
+                record.get(content);
+
+                if (crc != crc(content)) {
+                    break;
+                }
+
+                if (now - created <= this.retention) {
+                    this.index(hex(digest), new Location(segment, position, HEADER + length, created));
+                }
+
+                position += HEADER + length;
+            }
+
+            segment.position = position;
+        }
+
+        if (this.segments.isEmpty()) {
+            this.roll();
+        }
+    }
+
+    /**
+     * @return the stored content and its time of creation or null
+     */
+    public ResponseCache.Entry get(String key) {
+
+        this.lock.readLock().lock();
+        try {
+
+            if (this.closed) {
+                return null;
+            }
+
+            Location location = this.index.get(hex(digest(key)));
+
+            if (location == null) {
+                return null;
+            }
+
+            if (System.currentTimeMillis() - location.created > this.retention) {
+                return null;
+            }
+
+            byte[] content = new byte[location.length - HEADER];
+            ByteBuffer record = location.segment.buffer.duplicate();
+            record.position(location.offset + HEADER);
+            record.get(content);
+
+            this.hits.incrementAndGet();
+            return new ResponseCache.Entry(new String(content, UTF8), null, location.created);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public void put(String key, String content, long created) {
+
+        this.lock.writeLock().lock();
+        try {
+
+            if (this.closed) {
+                return;
+            }
+
+            try {
+                this.append(digest(key), content.getBytes(UTF8), created);
+                this.writes.incrementAndGet();
+            }
+            catch (IOException e) {
+
+                this.logger.error("[" + this.serviceName + "] " + "Writing to '" + this.directory + "' failed: " + e.getMessage());
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void append(byte[] digest, byte[] content, long created) throws IOException {
+
+        int length = HEADER + content.length;
+
+        // never larger than a segment
+        if (length > this.segmentSize) {
+            return;
+        }
+
+        Segment segment = this.segments.lastEntry().getValue();
+
+        if (segment.position + length > segment.buffer.capacity()) {
+            segment = this.roll();
+        }
+
+        int position = segment.position;
+
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(position + 4);
+        record.putInt(content.length);
+        record.putLong(created);
+        record.put(digest);
+        record.putInt(crc(content));
+        record.put(content);
+        // the entry counts once it is complete
+        segment.buffer.putInt(position, MAGIC);
+
+        segment.position += length;
+
+        this.index(hex(digest), new Location(segment, position, length, created));
+    }
+
+    private void index(String digest, Location location) {
+
+        Location previous = this.index.put(digest, location);
+
+        if (previous != null) {
+            previous.segment.live -= previous.length;
+        }
+        location.segment.live += location.length;
+    }
+
+    private Segment roll() throws IOException {
+
+        int number = this.segments.isEmpty() ? 1 : this.segments.lastKey() + 1;
+
+        Segment segment = new Segment(number, new File(this.directory, String.format("segment-%08d.dat", number)), this.segmentSize);
+        this.segments.put(number, segment);
+
+        return segment;
+    }
+
+    /**
+     * Drops expired entries, deletes the oldest segments beyond the size limit and copies the live entries of segments
+     * that are less than half alive to the end of the log.
+     */
+    void compact() throws IOException {
+
+        this.lock.writeLock().lock();
+        try {
+
+            if (this.closed) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+
+            Map<Segment, List<String>> bySegment = new HashMap<Segment, List<String>>();
+
+            Iterator<Map.Entry<String, Location>> iterator = this.index.entrySet().iterator();
+            while (iterator.hasNext()) {
+
+                Map.Entry<String, Location> entry = iterator.next();
+                Location location = entry.getValue();
+
+                if (now - location.created > this.retention) {
+
+                    iterator.remove();
+                    location.segment.live -= location.length;
+                    continue;
+                }
+
+                List<String> keys = bySegment.get(location.segment);
+                if (keys == null) {
+                    keys = new ArrayList<String>();
+                    bySegment.put(location.segment, keys);
+                }
+                keys.add(entry.getKey());
+            }
+
+            while ((long) this.segments.size() * this.segmentSize > this.maxBytes && this.segments.size() > 1) {
+
+                Segment oldest = this.segments.firstEntry().getValue();
+
+                List<String> keys = bySegment.remove(oldest);
+                if (keys != null) {
+                    for (String key : keys) {
+                        this.index.remove(key);
+                    }
+                }
+
+                this.delete(oldest);
+            }
+
+            for (Segment segment : new ArrayList<Segment>(this.segments.values())) {
+
+                if (segment == this.segments.lastEntry().getValue() || segment.live * 2 >= segment.position) {
+                    continue;
+                }
+
+                List<String> keys = bySegment.remove(segment);
+                if (keys != null) {
+
+                    for (String key : keys) {
+
+                        Location location = this.index.get(key);
+
+                        byte[] digest = new byte[16];
+                        byte[] content = new byte[location.length - HEADER];
+                        ByteBuffer record = segment.buffer.duplicate();
+                        record.position(location.offset + 16);
+                        record.get(digest);
+                        record.position(location.offset + HEADER);
+                        record.get(content);
+
+                        this.append(digest, content, location.created);
+                    }
+                }
+
+                this.delete(segment);
+                this.compactions.incrementAndGet();
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void delete(Segment segment) throws IOException {
+
+        this.segments.remove(segment.number);
+        segment.close();
+
+        // the mapping itself is released by the garbage collector
+        if (!segment.file.delete()) {
+            this.logger.warn("[" + this.serviceName + "] " + "Segment '" + segment.file + "' could not be deleted");
+        }
+    }
+
+    public void clear() {
+
+        this.lock.writeLock().lock();
+        try {
+
+            try {
+
+                for (Segment segment : new ArrayList<Segment>(this.segments.values())) {
+                    this.delete(segment);
+                }
+                this.index.clear();
+                this.roll();
+            }
+            catch (IOException e) {
+
+                this.logger.error("[" + this.serviceName + "] " + "Clearing '" + this.directory + "' failed: " + e.getMessage());
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public int getSize() {
+
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public long getBytes() {
+
+        this.lock.readLock().lock();
+        try {
+            return (long) this.segments.size() * this.segmentSize;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public long getHits() {
+
+        return this.hits.get();
+    }
+
+    public long getWrites() {
+
+        return this.writes.get();
+    }
+
+    public long getCompactions() {
+
+        return this.compactions.get();
+    }
+
+    @Override
+    public void close() {
+
+        this.lock.writeLock().lock();
+        try {
+
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+
+            this.compactor.shutdownNow();
+
+            for (Segment segment : this.segments.values()) {
+
+                try {
+                    segment.buffer.force();
+                    segment.close();
+                }
+                catch (IOException e) {
+
+                    this.logger.error("[" + this.serviceName + "] " + "Closing '" + segment.file + "' failed: " + e.getMessage());
+                }
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private static byte[] digest(String key) {
+
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes(UTF8));
+        }
+        catch (NoSuchAlgorithmException e) {
+
+            // every JVM provides MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static int crc(byte[] content) {
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+
+        private final int number;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        // next entry is written here
+        private int position = 0;
+        // bytes of the entries in the index
+        private long live = 0;
+
+        Segment(int number, File file, long size) throws IOException {
+
+            this.number = number;
+            this.file = file;
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+
+            this.channel = randomAccessFile.getChannel();
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+        }
+
+        void close() throws IOException {
+
+            this.channel.close();
+        }
+    }
+
+    private static class Location {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long created;
+
+        Location(Segment segment, int offset, int length, long created) {
+
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Strong entity tags for HTTP conditional requests.
+ */
+public class ETag {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // suffix of the entity tags of compressed responses
+    private static final String GZIP = "--gzip\"";
+
+    /**
+     * @return the quoted entity tag of the content
+     */
+    public static String of(String... content) {
+
+        try {
+
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+
+            for (String part : content) {
+                digest.update(part.getBytes(UTF8));
+                digest.update((byte) 0);
+            }
+
+            return quote(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the hash as quoted entity tag
+     */
+    static String quote(byte[] hash) {
+
+        char[] result = new char[2 + 2 * hash.length];
+        result[0] = '"';
+        for (int i = 0; i < hash.length; i++) {
+            result[1 + 2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            result[2 + 2 * i] = HEX[hash[i] & 0xf];
+        }
+        result[result.length - 1] = '"';
+
+        return new String(result);
+    }
+
+    /**
+     * @param ifNoneMatch value of the header 'If-None-Match'
+     * @return true if the header contains the entity tag; weak comparison as required for 'If-None-Match', the
+     * compressed and the uncompressed response match each other (the gzip handler removes the suffix from the request)
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+
+        etag = withoutGzip(etag);
+
+        for (String candidate : ifNoneMatch.split(",")) {
+
+            candidate = candidate.trim();
+
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (withoutGzip(candidate).equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String withoutGzip(String etag) {
+
+        return etag.endsWith(GZIP) ? etag.substring(0, etag.length() - GZIP.length()) + "\"" : etag;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the HTTP client shared by all plugins. Connections are pooled per route ('service.http.maxperroute') up to
+ * 'service.http.maxtotal' and kept alive for 'service.http.keepalive' (in s) unless the backend announces a shorter
+ * timeout. Connections idle longer than 'service.http.idle' (in s) are closed in the background. Timeouts (in ms):
+ * 'service.http.timeout.connect', 'service.http.timeout.read' and 'service.http.timeout.pool' for waiting on a free
+ * connection.
+ */
+public class HttpClientFactory implements Closeable {
+
+    private Logger logger = Logger.getLogger(HttpClientFactory.class.getName());
+
+    private final String serviceName;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final IdleConnectionEvictor idleConnectionEvictor;
+    private final CloseableHttpClient httpClient;
+
+    public HttpClientFactory(Properties config) {
+
+        this.serviceName = config.getProperty("service.name");
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(Integer.parseInt(config.getProperty("service.http.maxtotal", "200")));
+        this.connectionManager.setDefaultMaxPerRoute(Integer.parseInt(config.getProperty("service.http.maxperroute", "50")));
+        // connections closed by the backend are detected before they are reused
+        this.connectionManager.setValidateAfterInactivity(Integer.parseInt(config.getProperty("service.http.validate", "2000")));
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Integer.parseInt(config.getProperty("service.http.timeout.connect", "5000")))
+                .setSocketTimeout(Integer.parseInt(config.getProperty("service.http.timeout.read", "30000")))
+                .setConnectionRequestTimeout(Integer.parseInt(config.getProperty("service.http.timeout.pool", "5000")))
+                .build();
+
+        final long keepAlive = TimeUnit.SECONDS.toMillis(Long.parseLong(config.getProperty("service.http.keepalive", "30")));
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        return keepAliveDuration(response, keepAlive);
+                    }
+                })
+                .build();
+
+        long idle = Long.parseLong(config.getProperty("service.http.idle", "30"));
+
+        this.idleConnectionEvictor = new IdleConnectionEvictor(this.connectionManager, idle, TimeUnit.SECONDS);
+        this.idleConnectionEvictor.start();
+
+        this.logger.info("[" + this.serviceName + "] " + "HTTP client: maxtotal = " + this.connectionManager.getMaxTotal() + ", maxperroute = " + this.connectionManager.getDefaultMaxPerRoute());
+    }
+
+    /**
+     * @param keepAlive upper bound in ms
+     * @return the timeout of the 'Keep-Alive' header of the response, at most keepAlive
+     */
+    static long keepAliveDuration(HttpResponse response, long keepAlive) {
+
+        HeaderElementIterator iterator = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+
+        while (iterator.hasNext()) {
+
+            HeaderElement element = iterator.nextElement();
+
+            if (element.getName().equalsIgnoreCase("timeout") && element.getValue() != null) {
+
+                try {
+                    return Math.min(Long.parseLong(element.getValue()) * 1000, keepAlive);
+                }
+                catch (NumberFormatException e) {
+                    // use the default
+                }
+            }
+        }
+
+        return keepAlive;
+    }
+
+    /**
+     * @return the shared, thread-safe client; plugins must not close it
+     */
+    public CloseableHttpClient getHttpClient() {
+
+        return this.httpClient;
+    }
+
+    /**
+     * @return leased, available and pending connections of all routes
+     */
+    public PoolStats getPoolStats() {
+
+        return this.connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+
+        this.idleConnectionEvictor.shutdown();
+
+        try {
+            this.httpClient.close();
+        }
+        catch (IOException e) {
+
+            this.logger.error("[" + this.serviceName + "] " + "Error while closing the HTTP client: " + e.getMessage());
+        }
+
+        this.connectionManager.shutdown();
+    }
+}
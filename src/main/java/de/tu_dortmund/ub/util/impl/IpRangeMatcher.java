@@ -0,0 +1,600 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Classifies client IPs into access groups. Each group is configured with a list of ranges and a list of exceptions,
+ * separated by '|'. Entries are CIDR blocks ("129.217.0.0/16", "2001:db8::/32"), single addresses or ranges
+ * ("10.0.0.1-10.0.0.9").
+ *
+ * For the migration from the former configuration, regular expressions describing address prefixes like
+ * "129\.217\..*" are converted into ranges as well. Other regular expressions are still supported but evaluated as
+ * patterns; a warning is logged for them.
+ *
+ * The ranges of all groups are compiled into one sorted array of interval boundaries over the 128 bit address space
+ * (IPv4 addresses are mapped to ::ffff:0:0/96), so a lookup is a single binary search.
+ */
+public class IpRangeMatcher {
+
+    private static final long IPV4_MAPPED = 0xffff00000000L;
+
+    private static final Pattern IP_PREFIX_REGEX = Pattern.compile("\\^?((?:\\d{1,3}\\\\?\\.){0,3})(\\d{0,3})(\\\\?\\.)?\\.\\*\\$?");
+    private static final Pattern IP_REGEX = Pattern.compile("\\^?((?:\\d{1,3}\\\\?\\.){3}\\d{1,3})\\$?");
+
+    private static Logger logger = Logger.getLogger(IpRangeMatcher.class.getName());
+
+    // interval i starts at (startsHi[i], startsLo[i]) and ends before interval i + 1
+    private final long[] startsHi;
+    private final long[] startsLo;
+    // bit 2g: address is in the ranges of group g, bit 2g + 1: address is in the exceptions of group g
+    private final long[] masks;
+
+    private final Pattern[][] rangePatterns;
+    private final Pattern[][] exceptionPatterns;
+    private final int groups;
+
+    private IpRangeMatcher(List<Group> groups) {
+
+        this.groups = groups.size();
+        this.rangePatterns = new Pattern[this.groups][];
+        this.exceptionPatterns = new Pattern[this.groups][];
+
+        TreeSet<Address> boundaries = new TreeSet<Address>();
+        boundaries.add(new Address(0, 0));
+
+        for (int g = 0; g < this.groups; g++) {
+
+            Group group = groups.get(g);
+
+            for (List<Range> ranges : Arrays.asList(group.ranges, group.exceptions)) {
+                for (Range range : ranges) {
+                    boundaries.add(range.start);
+                    if (!range.end.isMax()) {
+                        boundaries.add(range.end.next());
+                    }
+                }
+            }
+
+            this.rangePatterns[g] = group.rangePatterns.toArray(new Pattern[group.rangePatterns.size()]);
+            this.exceptionPatterns[g] = group.exceptionPatterns.toArray(new Pattern[group.exceptionPatterns.size()]);
+        }
+
+        this.startsHi = new long[boundaries.size()];
+        this.startsLo = new long[boundaries.size()];
+        this.masks = new long[boundaries.size()];
+
+        int i = 0;
+        for (Address boundary : boundaries) {
+
+            this.startsHi[i] = boundary.hi;
+            this.startsLo[i] = boundary.lo;
+
+            for (int g = 0; g < this.groups; g++) {
+
+                if (contains(groups.get(g).ranges, boundary)) {
+                    this.masks[i] |= 1L << (2 * g);
+                }
+                if (contains(groups.get(g).exceptions, boundary)) {
+                    this.masks[i] |= 1L << (2 * g + 1);
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @param ip IPv4 or IPv6 address
+     * @return bit set of the groups the address belongs to, in the order the groups were added to the builder
+     */
+    public long classify(String ip) {
+
+        if (ip == null) {
+            return 0;
+        }
+
+        ip = ip.trim();
+
+        long hi;
+        long lo;
+
+        long ipv4 = parseIPv4(ip, 0, ip.length());
+        if (ipv4 >= 0) {
+            hi = 0;
+            lo = IPV4_MAPPED | ipv4;
+        }
+        else {
+            Address address = parseIPv6(ip);
+            if (address == null) {
+                return 0;
+            }
+            hi = address.hi;
+            lo = address.lo;
+        }
+
+        long mask = this.masks[this.find(hi, lo)];
+
+        long result = 0;
+        for (int g = 0; g < this.groups; g++) {
+
+            boolean inRange = (mask & (1L << (2 * g))) != 0 || matches(this.rangePatterns[g], ip);
+            boolean inException = (mask & (1L << (2 * g + 1))) != 0 || matches(this.exceptionPatterns[g], ip);
+
+            if (inRange && !inException) {
+                result |= 1L << g;
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean isMember(long groups, int group) {
+
+        return (groups & (1L << group)) != 0;
+    }
+
+    private int find(long hi, long lo) {
+
+        // last boundary <= address; boundary 0 is always present
+        int low = 0;
+        int high = this.startsHi.length - 1;
+
+        while (low < high) {
+
+            int mid = (low + high + 1) >>> 1;
+            if (compare(this.startsHi[mid], this.startsLo[mid], hi, lo) <= 0) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static boolean matches(Pattern[] patterns, String ip) {
+
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(ip).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(List<Range> ranges, Address address) {
+
+        for (Range range : ranges) {
+            if (range.start.compareTo(address) <= 0 && address.compareTo(range.end) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(long hi1, long lo1, long hi2, long lo2) {
+
+        int result = compareUnsigned(hi1, hi2);
+        return result != 0 ? result : compareUnsigned(lo1, lo2);
+    }
+
+    private static int compareUnsigned(long a, long b) {
+
+        return Long.compare(a + Long.MIN_VALUE, b + Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the address as unsigned 32 bit value or -1 if the text is no IPv4 address
+     */
+    private static long parseIPv4(String text, int from, int to) {
+
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+
+        for (int i = from; i < to; i++) {
+
+            char c = text.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            }
+            else if (c == '.' && value >= 0 && octets < 3) {
+                result = (result << 8) | value;
+                octets++;
+                value = -1;
+            }
+            else {
+                return -1;
+            }
+        }
+
+        if (value < 0 || octets != 3) {
+            return -1;
+        }
+
+        return (result << 8) | value;
+    }
+
+    private static Address parseIPv6(String text) {
+
+        int zone = text.indexOf('%');
+        if (zone >= 0) {
+            text = text.substring(0, zone);
+        }
+        if (text.startsWith("[") && text.endsWith("]")) {
+            text = text.substring(1, text.length() - 1);
+        }
+        if (text.indexOf(':') < 0) {
+            return null;
+        }
+
+        int[] words = new int[8];
+        int count = 0;
+        int gap = -1;
+
+        int i = 0;
+        if (text.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+
+        while (i < text.length()) {
+
+            int end = text.indexOf(':', i);
+            if (end < 0) {
+                end = text.length();
+            }
+
+            String part = text.substring(i, end);
+
+            if (end == text.length() && part.indexOf('.') >= 0) {
+                // embedded IPv4 address
+                long ipv4 = parseIPv4(part, 0, part.length());
+                if (ipv4 < 0 || count > 6) {
+                    return null;
+                }
+                words[count++] = (int) (ipv4 >>> 16);
+                words[count++] = (int) (ipv4 & 0xffff);
+                break;
+            }
+
+            if (part.isEmpty() || part.length() > 4 || count >= 8) {
+                return null;
+            }
+            try {
+                words[count++] = Integer.parseInt(part, 16);
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (end == text.length()) {
+                break;
+            }
+            if (end + 1 < text.length() && text.charAt(end + 1) == ':') {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = count;
+                i = end + 2;
+            }
+            else if (end + 1 == text.length()) {
+                return null;
+            }
+            else {
+                i = end + 1;
+            }
+        }
+
+        if (gap >= 0) {
+            if (count == 8) {
+                return null;
+            }
+            int[] expanded = new int[8];
+            System.arraycopy(words, 0, expanded, 0, gap);
+            System.arraycopy(words, gap, expanded, 8 - (count - gap), count - gap);
+            words = expanded;
+        }
+        else if (count != 8) {
+            return null;
+        }
+
+        long hi = 0;
+        long lo = 0;
+        for (int w = 0; w < 4; w++) {
+            hi = (hi << 16) | words[w];
+            lo = (lo << 16) | words[w + 4];
+        }
+
+        return new Address(hi, lo);
+    }
+
+    private static Address parseAddress(String text) {
+
+        long ipv4 = parseIPv4(text, 0, text.length());
+        if (ipv4 >= 0) {
+            return new Address(0, IPV4_MAPPED | ipv4);
+        }
+        return parseIPv6(text);
+    }
+
+    /**
+     * @return the range of the entry or null if the entry is no CIDR block, address or range
+     */
+    static Range parseRange(String entry) {
+
+        int dash = entry.indexOf('-');
+        if (dash > 0) {
+
+            Address start = parseAddress(entry.substring(0, dash).trim());
+            Address end = parseAddress(entry.substring(dash + 1).trim());
+
+            return start != null && end != null && start.compareTo(end) <= 0 ? new Range(start, end) : null;
+        }
+
+        int slash = entry.indexOf('/');
+        Address address = parseAddress(slash > 0 ? entry.substring(0, slash) : entry);
+        if (address == null) {
+            return null;
+        }
+
+        int prefix = 128;
+        if (slash > 0) {
+            try {
+                prefix = Integer.parseInt(entry.substring(slash + 1));
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+            boolean ipv4 = entry.indexOf(':') < 0;
+            if (ipv4) {
+                prefix += 96;
+            }
+            if (prefix < (ipv4 ? 96 : 0) || prefix > 128) {
+                return null;
+            }
+        }
+
+        long maskHi = prefix >= 64 ? -1L : (prefix == 0 ? 0 : -1L << (64 - prefix));
+        long maskLo = prefix >= 128 ? -1L : (prefix <= 64 ? 0 : -1L << (128 - prefix));
+
+        return new Range(new Address(address.hi & maskHi, address.lo & maskLo), new Address(address.hi | ~maskHi, address.lo | ~maskLo));
+    }
+
+    /**
+     * Converts regular expressions of the former configuration that describe an address or an address prefix.
+     *
+     * @return the ranges or null if the regular expression can not be converted
+     */
+    static List<Range> convertRegex(String regex) {
+
+        Matcher ip = IP_REGEX.matcher(regex);
+        if (ip.matches()) {
+
+            Range range = parseRange(ip.group(1).replace("\\", ""));
+            return range != null ? Arrays.asList(range) : null;
+        }
+
+        Matcher prefix = IP_PREFIX_REGEX.matcher(regex);
+        if (!prefix.matches()) {
+            return null;
+        }
+
+        String octets = prefix.group(1).replace("\\", "");
+        String partial = prefix.group(2);
+        boolean dot = prefix.group(3) != null;
+
+        String[] parts = octets.isEmpty() ? new String[0] : octets.substring(0, octets.length() - 1).split("\\.");
+        long base = 0;
+        for (String part : parts) {
+            int value = Integer.parseInt(part);
+            if (value > 255) {
+                return null;
+            }
+            base = (base << 8) | value;
+        }
+        int known = parts.length;
+
+        if (dot) {
+            // "129\.217\.13\..*": the partial octet is complete
+            if (partial.isEmpty() || known == 3) {
+                return null;
+            }
+            int value = Integer.parseInt(partial);
+            if (value > 255) {
+                return null;
+            }
+            base = (base << 8) | value;
+            known++;
+            partial = "";
+        }
+
+        List<Range> ranges = new ArrayList<Range>();
+
+        if (partial.isEmpty()) {
+            ranges.add(ipv4Range(base, known, 0, 255));
+        }
+        else {
+            // "129\.217\.1.*": all octets starting with the digits, consecutive values are merged later
+            if (known == 4) {
+                return null;
+            }
+            for (int value = 0; value <= 255; value++) {
+                if (Integer.toString(value).startsWith(partial)) {
+                    ranges.add(ipv4Range(base, known, value, value));
+                }
+            }
+            if (ranges.isEmpty()) {
+                return null;
+            }
+        }
+
+        return ranges;
+    }
+
+    private static Range ipv4Range(long base, int known, int from, int to) {
+
+        if (known == 4) {
+            return new Range(new Address(0, IPV4_MAPPED | base), new Address(0, IPV4_MAPPED | base));
+        }
+
+        int rest = 32 - 8 * (known + 1);
+        long start = ((base << 8) | from) << rest;
+        long end = (((base << 8) | to) << rest) | ((1L << rest) - 1);
+
+        return new Range(new Address(0, IPV4_MAPPED | start), new Address(0, IPV4_MAPPED | end));
+    }
+
+    public static class Builder {
+
+        private final List<Group> groups = new ArrayList<Group>();
+
+        /**
+         * @param ranges entries separated by '|', may be null
+         * @param exceptions entries separated by '|', may be null
+         * @return the index of the group in the result of {@link IpRangeMatcher#classify(String)}
+         */
+        public int addGroup(String ranges, String exceptions) {
+
+            if (this.groups.size() == 32) {
+                throw new IllegalStateException("Too many groups!");
+            }
+
+            Group group = new Group();
+            parse(ranges, group.ranges, group.rangePatterns);
+            parse(exceptions, group.exceptions, group.exceptionPatterns);
+            this.groups.add(group);
+
+            return this.groups.size() - 1;
+        }
+
+        public IpRangeMatcher build() {
+
+            return new IpRangeMatcher(this.groups);
+        }
+
+        private static void parse(String entries, List<Range> ranges, List<Pattern> patterns) {
+
+            if (entries == null) {
+                return;
+            }
+
+            for (String entry : entries.split("\\|")) {
+
+                entry = entry.trim();
+                if (entry.isEmpty()) {
+                    continue;
+                }
+
+                Range range = parseRange(entry);
+                if (range != null) {
+                    ranges.add(range);
+                    continue;
+                }
+
+                List<Range> converted = convertRegex(entry);
+                if (converted != null) {
+                    ranges.addAll(converted);
+                    continue;
+                }
+
+                try {
+                    patterns.add(Pattern.compile(entry));
+                    logger.warn("IP range '" + entry + "' is evaluated as regular expression. Please use CIDR notation instead.");
+                }
+                catch (PatternSyntaxException e) {
+                    logger.error("IP range '" + entry + "' ignored: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class Group {
+
+        final List<Range> ranges = new ArrayList<Range>();
+        final List<Range> exceptions = new ArrayList<Range>();
+        final List<Pattern> rangePatterns = new ArrayList<Pattern>();
+        final List<Pattern> exceptionPatterns = new ArrayList<Pattern>();
+    }
+
+    static class Range {
+
+        final Address start;
+        final Address end;
+
+        Range(Address start, Address end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    static class Address implements Comparable<Address> {
+
+        final long hi;
+        final long lo;
+
+        Address(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        boolean isMax() {
+            return this.hi == -1L && this.lo == -1L;
+        }
+
+        Address next() {
+            return this.lo == -1L ? new Address(this.hi + 1, 0) : new Address(this.hi, this.lo + 1);
+        }
+
+        @Override
+        public int compareTo(Address other) {
+            return compare(this.hi, this.lo, other.hi, other.lo);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Address && ((Address) other).hi == this.hi && ((Address) other).lo == this.lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (this.hi ^ (this.hi >>> 32) ^ this.lo ^ (this.lo >>> 32));
+        }
+    }
+}
@@ -21,6 +21,8 @@ public class Mailer {
 
     private Logger logger = Logger.getLogger(Mailer.class.getName());
 
+    private Session session;
+
     public Mailer() throws IOException {
 
         this("../conf/mailer.properties");
@@ -59,25 +61,26 @@ public class Mailer {
         logger.info("Starting Mailer ... ");
         logger.info("conf-file = " + propfile_api);
         logger.info("log4j-conf-file = " + apiProperties.getProperty("service.log4j-conf"));
+
+        // create some properties and get the default Session
+        Properties props = new Properties();
+        if (this.apiProperties.getProperty("host") != null) {
+            props.put("mail.smtp.host", this.apiProperties.getProperty("host"));
+        }
+        props.put("mail.debug", false);
+
+        this.session = Session.getInstance(props, null);
+        this.session.setDebug(true);
     }
 
     public void postMail( String subject, String message ) throws MessagingException {
 
         String to = this.apiProperties.getProperty("to");
         String from = this.apiProperties.getProperty("from");
-        String host = this.apiProperties.getProperty("host");
-
-        // create some properties and get the default Session
-        Properties props = new Properties();
-        props.put("mail.smtp.host", host);
-        props.put("mail.debug", false);
-
-        Session session = Session.getInstance(props, null);
-        session.setDebug(true);
 
         try {
             // create a message
-            MimeMessage msg = new MimeMessage(session);
+            MimeMessage msg = new MimeMessage(this.session);
             msg.setFrom(new InternetAddress(from));
             //InternetAddress[] address = {new InternetAddress(to)};
             msg.setRecipients(Message.RecipientType.TO, to);
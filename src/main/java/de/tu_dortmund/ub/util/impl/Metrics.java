@@ -0,0 +1,294 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry for latencies, counters and gauges of the service. Latencies are recorded in HdrHistograms with microsecond
+ * resolution; their quantiles cover a sliding window, so that they follow changes of the latency, '_sum' and '_count'
+ * the lifetime of the process for rates. {@link #write(Writer)} exports everything in the Prometheus text format.
+ */
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final long window;
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    public Metrics() {
+
+        this(60000);
+    }
+
+    /**
+     * @param window time span of the exported quantiles in ms
+     */
+    public Metrics(long window) {
+
+        this.window = window;
+    }
+
+    /**
+     * Registers name, type ("summary", "counter" or "gauge") and help text of a metric.
+     */
+    public void describe(String name, String type, String help) {
+
+        this.family(name, type).help = help;
+    }
+
+    public void observe(String name, String labels, long nanos) {
+
+        Summary summary = (Summary) this.family(name, "summary").series.get(labels);
+
+        if (summary == null) {
+
+            summary = new Summary(this.window);
+            Object existing = this.family(name, "summary").series.putIfAbsent(labels, summary);
+            if (existing != null) {
+                summary = (Summary) existing;
+            }
+        }
+
+        summary.record(nanos);
+    }
+
+    public void increment(String name, String labels) {
+
+        this.increment(name, labels, 1);
+    }
+
+    public void increment(String name, String labels, long delta) {
+
+        AtomicLong counter = (AtomicLong) this.family(name, "counter").series.get(labels);
+
+        if (counter == null) {
+
+            counter = new AtomicLong();
+            Object existing = this.family(name, "counter").series.putIfAbsent(labels, counter);
+            if (existing != null) {
+                counter = (AtomicLong) existing;
+            }
+        }
+
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Registers a value that is read on export, e.g. counters kept by other components.
+     *
+     * @param type "counter" or "gauge"
+     */
+    public void register(String name, String type, String labels, Gauge gauge) {
+
+        this.family(name, type).series.put(labels, gauge);
+    }
+
+    /**
+     * @param labels name and value pairs
+     * @return the labels in Prometheus notation
+     */
+    public static String labels(String... labels) {
+
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"");
+            result.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+            result.append('"');
+        }
+
+        return result.toString();
+    }
+
+    public void write(Writer writer) throws IOException {
+
+        for (Map.Entry<String, Family> entry : this.families.entrySet()) {
+
+            String name = entry.getKey();
+            Family family = entry.getValue();
+
+            if (family.help != null) {
+                writer.write("# HELP " + name + " " + family.help + "\n");
+            }
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+
+            for (Map.Entry<String, Object> series : new ConcurrentSkipListMap<String, Object>(family.series).entrySet()) {
+
+                String labels = series.getKey();
+                Object value = series.getValue();
+
+                if (value instanceof Summary) {
+
+                    Summary summary = (Summary) value;
+                    Histogram histogram = summary.window(System.currentTimeMillis());
+
+                    for (double quantile : QUANTILES) {
+                        writer.write(name + "{" + join(labels, "quantile=\"" + quantile + "\"") + "} " + format(histogram.getValueAtPercentile(quantile * 100) / 1e6) + "\n");
+                    }
+                    writer.write(name + "_sum" + braces(labels) + " " + format(summary.sum.sum() / 1e9) + "\n");
+                    writer.write(name + "_count" + braces(labels) + " " + summary.count.sum() + "\n");
+                }
+                else if (value instanceof AtomicLong) {
+
+                    writer.write(name + braces(labels) + " " + ((AtomicLong) value).get() + "\n");
+                }
+                else if (value instanceof Gauge) {
+
+                    writer.write(name + braces(labels) + " " + format(((Gauge) value).value()) + "\n");
+                }
+            }
+        }
+    }
+
+    private Family family(String name, String type) {
+
+        Family family = this.families.get(name);
+
+        if (family == null) {
+
+            family = new Family(type);
+            Family existing = this.families.putIfAbsent(name, family);
+            if (existing != null) {
+                family = existing;
+            }
+        }
+
+        return family;
+    }
+
+    private static String join(String labels, String label) {
+
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static String braces(String labels) {
+
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String format(double value) {
+
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    public interface Gauge {
+
+        double value();
+    }
+
+    private static class Family {
+
+        final String type;
+        final ConcurrentMap<String, Object> series = new ConcurrentHashMap<String, Object>();
+        volatile String help;
+
+        Family(String type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Latencies of one series: the quantiles of the last 'window' ms from interval histograms in {@value #BUCKETS}
+     * buckets, sum and count since the start. The latencies recorded since the last export are added to the current
+     * bucket.
+     */
+    static class Summary {
+
+        private static final int BUCKETS = 6;
+
+        private final long bucket;
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram[] buckets = new Histogram[BUCKETS];
+        private final long[] epochs = new long[BUCKETS];
+        private Histogram interval;
+
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+
+        Summary(long window) {
+
+            this.bucket = Math.max(1, window / BUCKETS);
+        }
+
+        void record(long nanos) {
+
+            nanos = Math.max(0, nanos);
+
+            this.recorder.recordValue(nanos / 1000);
+            this.count.increment();
+            this.sum.add(nanos);
+        }
+
+        /**
+         * @return the latencies of the window in µs
+         */
+        synchronized Histogram window(long now) {
+
+            long epoch = now / this.bucket;
+            int index = (int) (epoch % BUCKETS);
+
+            this.interval = this.recorder.getIntervalHistogram(this.interval);
+
+            if (this.buckets[index] == null || this.epochs[index] != epoch) {
+
+                this.buckets[index] = this.interval.copy();
+                this.epochs[index] = epoch;
+            }
+            else {
+                this.buckets[index].add(this.interval);
+            }
+
+            Histogram result = new Histogram(3);
+
+            for (int i = 0; i < BUCKETS; i++) {
+                if (this.buckets[i] != null && epoch - this.epochs[i] < BUCKETS) {
+                    result.add(this.buckets[i]);
+                }
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Discovers the plugins configured in "META-INF/services" once, initializes them with the service configuration and
+ * hands out the shared instances. Plugins are used concurrently by all request threads and therefore have to be
+ * thread-safe. Plugins implementing {@link Closeable} are closed on {@link #close()}.
+ */
+public class ProviderRegistry implements Closeable {
+
+    private Logger logger = Logger.getLogger(ProviderRegistry.class.getName());
+
+    private final Properties config;
+    private final Map<Class<?>, Object> providers = new ConcurrentHashMap<Class<?>, Object>();
+    private final List<Object> initialized = new ArrayList<Object>();
+
+    private volatile boolean closed = false;
+
+    public ProviderRegistry(Properties config) {
+
+        this.config = config;
+    }
+
+    /**
+     * Looks up the first provider of the given plugin interface and initializes it. Plugins of the same interface
+     * are only looked up and initialized once.
+     *
+     * @param clazz plugin interface
+     * @param initializer calls the plugin's init method
+     * @return the shared instance or null if no provider is configured
+     */
+    public synchronized <T> T register(Class<T> clazz, Initializer<T> initializer) {
+
+        if (this.closed) {
+            throw new IllegalStateException("ProviderRegistry already closed!");
+        }
+
+        if (this.providers.containsKey(clazz)) {
+            return clazz.cast(this.providers.get(clazz));
+        }
+
+        T provider = Lookup.lookup(clazz);
+
+        if (provider == null) {
+
+            this.logger.warn("[" + this.config.getProperty("service.name") + "] " + "No provider configured for '" + clazz.getName() + "'");
+            return null;
+        }
+
+        initializer.init(provider, this.config);
+
+        this.providers.put(clazz, provider);
+        this.initialized.add(provider);
+
+        this.logger.info("[" + this.config.getProperty("service.name") + "] " + clazz.getSimpleName() + " = " + provider.getClass().getName());
+
+        return provider;
+    }
+
+    /**
+     * @return the shared instance or null if no provider is configured
+     */
+    public <T> T get(Class<T> clazz) {
+
+        return clazz.cast(this.providers.get(clazz));
+    }
+
+    public boolean isAvailable(Class<?> clazz) {
+
+        return this.providers.containsKey(clazz);
+    }
+
+    @Override
+    public synchronized void close() {
+
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        // close in reverse order of initialization
+        for (int i = this.initialized.size() - 1; i >= 0; i--) {
+
+            Object provider = this.initialized.get(i);
+
+            if (provider instanceof Closeable) {
+
+                try {
+                    ((Closeable) provider).close();
+                }
+                catch (IOException e) {
+
+                    this.logger.error("[" + this.config.getProperty("service.name") + "] " + "Error while closing '" + provider.getClass().getName() + "': " + e.getMessage(), e);
+                }
+            }
+        }
+
+        this.initialized.clear();
+        this.providers.clear();
+    }
+
+    /**
+     * The plugin interfaces do not share a common super type, so the call of their init method is passed in.
+     */
+    public interface Initializer<T> {
+
+        void init(T provider, Properties config);
+    }
+}
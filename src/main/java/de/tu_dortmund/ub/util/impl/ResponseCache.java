@@ -0,0 +1,496 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache for rendered responses, bounded by the (approximate) memory size of its entries. Entries expire after a fixed
+ * time to live. Expired entries may be retained longer to be served as a stale fallback if the backend fails.
+ * Optionally, entries are stored gzip compressed as well, so they can be sent without compressing them again for every
+ * request.
+ *
+ * The entries are spread over up to 16 segments of at least 1 MB, each with its own lock; lookups only take its read
+ * lock. A hit marks the entry instead of reordering the segment, the eviction gives marked entries a second chance.
+ */
+public class ResponseCache {
+
+    // object headers, map entry and references per cache entry
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final int SEGMENTS = 16;
+    private static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long ttl;
+    private final long retention;
+    private final int compressionMinSize;
+    private final DiskCache diskCache;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * @param maxBytes upper bound for the size of all entries
+     * @param ttl time to live in milliseconds
+     */
+    public ResponseCache(long maxBytes, long ttl) {
+
+        this(maxBytes, ttl, -1);
+    }
+
+    /**
+     * @param maxBytes upper bound for the size of all entries
+     * @param ttl time to live in milliseconds
+     * @param compressionMinSize minimum length of contents stored gzip compressed as well; -1 for none
+     */
+    public ResponseCache(long maxBytes, long ttl, int compressionMinSize) {
+
+        this(maxBytes, ttl, ttl, compressionMinSize);
+    }
+
+    /**
+     * @param maxBytes upper bound for the size of all entries
+     * @param ttl time to live in milliseconds
+     * @param retention time in milliseconds expired entries are kept for {@link #getStale(String)}
+     * @param compressionMinSize minimum length of contents stored gzip compressed as well; -1 for none
+     */
+    public ResponseCache(long maxBytes, long ttl, long retention, int compressionMinSize) {
+
+        this(maxBytes, ttl, retention, compressionMinSize, null);
+    }
+
+    /**
+     * @param maxBytes upper bound for the size of all entries
+     * @param ttl time to live in milliseconds
+     * @param retention time in milliseconds expired entries are kept for {@link #getStale(String)}
+     * @param compressionMinSize minimum length of contents stored gzip compressed as well; -1 for none
+     * @param diskCache second level: all entries are written to it, missing entries are looked up there; may be null
+     */
+    public ResponseCache(long maxBytes, long ttl, long retention, int compressionMinSize, DiskCache diskCache) {
+
+        this.ttl = ttl;
+        this.retention = Math.max(ttl, retention);
+        this.compressionMinSize = compressionMinSize;
+        this.diskCache = diskCache;
+
+        int count = (int) Math.max(1, Math.min(SEGMENTS, maxBytes / MIN_SEGMENT_BYTES));
+
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(maxBytes / count);
+        }
+    }
+
+    /**
+     * @return the cached content or null if there is no valid entry for the key
+     */
+    public String get(String key) {
+
+        Entry entry = this.getEntry(key, true);
+
+        return entry == null ? null : entry.getContent();
+    }
+
+    /**
+     * Like {@link #get(String)}, but misses are not counted: the caller is expected to fall back to {@link #get(String)}.
+     *
+     * @return the cached entry or null if there is no valid entry for the key
+     */
+    public Entry getEntry(String key) {
+
+        return this.getEntry(key, false);
+    }
+
+    /**
+     * @param countMiss false if the caller falls back to {@link #get(String)}
+     * @return the cached entry or null if there is no valid entry for the key
+     */
+    public Entry getEntry(String key, boolean countMiss) {
+
+        Entry entry = this.lookup(key, this.ttl);
+
+        if (entry != null) {
+            this.hits.incrementAndGet();
+        }
+        else if (countMiss) {
+            this.misses.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Probe without side effects: not counted, not marked as used and the second level is not consulted.
+     *
+     * @return true if there is a valid entry for the key in memory
+     */
+    public boolean contains(String key) {
+
+        Entry entry = this.segment(key).get(key);
+
+        return entry != null && !entry.isExpired(System.currentTimeMillis(), this.ttl);
+    }
+
+    /**
+     * Last resort if the content cannot be computed again.
+     *
+     * @return the entry even if it is expired, as long as it is retained, or null
+     */
+    public Entry getStale(String key) {
+
+        Entry entry = this.lookup(key, this.retention);
+
+        if (entry != null) {
+            this.staleHits.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+    private Entry lookup(String key, long maxAge) {
+
+        Segment segment = this.segment(key);
+        long now = System.currentTimeMillis();
+
+        Entry entry = segment.get(key);
+
+        if (entry != null) {
+
+            if (entry.isExpired(now, this.retention)) {
+
+                if (segment.remove(key, entry)) {
+                    this.evictions.incrementAndGet();
+                }
+                return null;
+            }
+
+            if (entry.isExpired(now, maxAge)) {
+                return null;
+            }
+
+            entry.used = true;
+            return entry;
+        }
+
+        // second level, e.g. after a restart or an eviction
+        if (this.diskCache != null) {
+
+            entry = this.diskCache.get(key);
+
+            if (entry != null) {
+
+                entry = this.store(key, entry.getContent(), entry.getCreated());
+                return entry.isExpired(now, maxAge) ? null : entry;
+            }
+        }
+
+        return null;
+    }
+
+    public void put(String key, String content) {
+
+        long created = System.currentTimeMillis();
+
+        if (this.diskCache != null) {
+            this.diskCache.put(key, content, created);
+        }
+
+        this.store(key, content, created);
+    }
+
+    private Entry store(String key, String content, long created) {
+
+        byte[] gzip = this.compressionMinSize >= 0 && content.length() >= this.compressionMinSize ? gzip(content) : null;
+
+        Entry entry = new Entry(content, gzip, created);
+        long size = sizeOf(key, entry);
+
+        Segment segment = this.segment(key);
+
+        // never let a single entry flush the whole segment
+        if (size > segment.maxBytes / 2) {
+            return entry;
+        }
+
+        segment.lock.writeLock().lock();
+        try {
+
+            // a newer entry was put meanwhile
+            Entry current = segment.entries.get(key);
+            if (current != null && current.created > created) {
+                return current;
+            }
+
+            current = segment.entries.remove(key);
+            if (current != null) {
+                segment.bytes -= sizeOf(key, current);
+            }
+
+            segment.entries.put(key, entry);
+            segment.bytes += size;
+
+            while (segment.bytes > segment.maxBytes) {
+
+                Map.Entry<String, Entry> eldest = segment.entries.entrySet().iterator().next();
+                segment.entries.remove(eldest.getKey());
+
+                // used since it was passed the last time: moved to the end
+                if (eldest.getValue().used) {
+
+                    eldest.getValue().used = false;
+                    segment.entries.put(eldest.getKey(), eldest.getValue());
+                }
+                else {
+
+                    segment.bytes -= sizeOf(eldest.getKey(), eldest.getValue());
+                    this.evictions.incrementAndGet();
+                }
+            }
+        }
+        finally {
+            segment.lock.writeLock().unlock();
+        }
+
+        return entry;
+    }
+
+    public void clear() {
+
+        for (Segment segment : this.segments) {
+
+            segment.lock.writeLock().lock();
+            try {
+                segment.entries.clear();
+                segment.bytes = 0;
+            }
+            finally {
+                segment.lock.writeLock().unlock();
+            }
+        }
+
+        if (this.diskCache != null) {
+            this.diskCache.clear();
+        }
+    }
+
+    private Segment segment(String key) {
+
+        int hash = key.hashCode();
+
+        return this.segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % this.segments.length];
+    }
+
+    private static long sizeOf(String key, Entry entry) {
+
+        return ENTRY_OVERHEAD + 2L * (key.length() + entry.content.length()) + (entry.gzip == null ? 0 : entry.gzip.length);
+    }
+
+    private static byte[] gzip(String content) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(content.getBytes(UTF8));
+            // as sent uncompressed by PrintWriter.println()
+            gzip.write(System.lineSeparator().getBytes(UTF8));
+            gzip.close();
+
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+
+            // not possible in memory
+            return null;
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getStaleHits() {
+        return this.staleHits.get();
+    }
+
+    /**
+     * @return the second level or null
+     */
+    public DiskCache getDiskCache() {
+        return this.diskCache;
+    }
+
+    public int getSize() {
+
+        int size = 0;
+
+        for (Segment segment : this.segments) {
+
+            segment.lock.readLock().lock();
+            try {
+                size += segment.entries.size();
+            }
+            finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+
+        return size;
+    }
+
+    public long getBytes() {
+
+        long bytes = 0;
+
+        for (Segment segment : this.segments) {
+
+            segment.lock.readLock().lock();
+            try {
+                bytes += segment.bytes;
+            }
+            finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Part of the entries in insertion order, bounded by its share of the size of the cache.
+     */
+    private static class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        private final long maxBytes;
+        private long bytes = 0;
+
+        Segment(long maxBytes) {
+
+            this.maxBytes = maxBytes;
+        }
+
+        Entry get(String key) {
+
+            this.lock.readLock().lock();
+            try {
+                return this.entries.get(key);
+            }
+            finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return true if the entry was still stored for the key and has been removed
+         */
+        boolean remove(String key, Entry entry) {
+
+            this.lock.writeLock().lock();
+            try {
+
+                if (!this.entries.remove(key, entry)) {
+                    return false;
+                }
+                this.bytes -= sizeOf(key, entry);
+                return true;
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public static class Entry {
+
+        private final String content;
+        private final byte[] gzip;
+        private final long created;
+        private volatile String etag;
+
+        // looked up since the eviction passed it the last time
+        private volatile boolean used = false;
+
+        Entry(String content, byte[] gzip, long created) {
+
+            this.content = content;
+            this.gzip = gzip;
+            this.created = created;
+        }
+
+        public String getContent() {
+            return this.content;
+        }
+
+        /**
+         * @return the content followed by a line separator gzip compressed or null if it is not stored compressed
+         */
+        public byte[] getGzip() {
+            return this.gzip;
+        }
+
+        /**
+         * @return the entity tag of the content
+         */
+        public String getETag() {
+
+            if (this.etag == null) {
+                this.etag = ETag.of(this.content);
+            }
+            return this.etag;
+        }
+
+        public long getCreated() {
+            return this.created;
+        }
+
+        boolean isExpired(long now, long ttl) {
+
+            return now - this.created > ttl;
+        }
+    }
+}
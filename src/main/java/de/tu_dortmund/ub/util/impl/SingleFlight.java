@@ -0,0 +1,169 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package de.tu_dortmund.ub.util.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Executes only one call per key at a time. Callers arriving while a call for their key is in flight wait for it and
+ * share its result or failure; asynchronous callers share the future of the call.
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentMap<String, FutureTask<V>> calls = new ConcurrentHashMap<String, FutureTask<V>>();
+    private final ConcurrentMap<String, CompletableFuture<V>> futures = new ConcurrentHashMap<String, CompletableFuture<V>>();
+
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    public V execute(String key, Callable<V> callable) throws Exception {
+
+        FutureTask<V> task = new FutureTask<V>(callable);
+        FutureTask<V> inFlight = this.calls.putIfAbsent(key, task);
+
+        if (inFlight == null) {
+
+            this.executions.incrementAndGet();
+
+            try {
+                task.run();
+            }
+            finally {
+                this.calls.remove(key, task);
+            }
+
+            return get(task);
+        }
+        else {
+
+            this.shared.incrementAndGet();
+
+            return get(inFlight);
+        }
+    }
+
+    /**
+     * @param callable starts the call and returns its future
+     * @return a future of its own for every caller, completed with the result or failure of the shared call
+     */
+    public CompletableFuture<V> executeAsync(final String key, Callable<CompletableFuture<V>> callable) {
+
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> inFlight = this.futures.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+
+            this.shared.incrementAndGet();
+
+            return follow(inFlight);
+        }
+
+        this.executions.incrementAndGet();
+
+        try {
+
+            callable.call().whenComplete(new BiConsumer<V, Throwable>() {
+                @Override
+                public void accept(V result, Throwable throwable) {
+
+                    futures.remove(key, future);
+
+                    if (throwable == null) {
+                        future.complete(result);
+                    }
+                    else {
+                        future.completeExceptionally(throwable);
+                    }
+                }
+            });
+        }
+        catch (Exception e) {
+
+            this.futures.remove(key, future);
+            future.completeExceptionally(e);
+        }
+
+        return follow(future);
+    }
+
+    /**
+     * A caller completing or cancelling its future does not affect the others.
+     */
+    private static <V> CompletableFuture<V> follow(CompletableFuture<V> future) {
+
+        final CompletableFuture<V> follower = new CompletableFuture<V>();
+
+        future.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V result, Throwable throwable) {
+
+                if (throwable == null) {
+                    follower.complete(result);
+                }
+                else {
+                    follower.completeExceptionally(throwable);
+                }
+            }
+        });
+
+        return follower;
+    }
+
+    private static <V> V get(FutureTask<V> task) throws Exception {
+
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public long getExecutions() {
+        return this.executions.get();
+    }
+
+    public long getShared() {
+        return this.shared.get();
+    }
+
+    public int getInFlight() {
+        return this.calls.size() + this.futures.size();
+    }
+}
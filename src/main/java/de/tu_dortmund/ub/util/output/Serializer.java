@@ -0,0 +1,102 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2015, Hans-Georg Becker, http://orcid.org/0000-0003-0432-294X
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+
+package de.tu_dortmund.ub.util.output;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Thread-safe XML and JSON serialization of model objects. The JAXB context and the Jackson writer are built once;
+ * marshallers are not thread-safe and therefore pooled.
+ */
+public class Serializer {
+
+    private final JAXBContext jaxbContext;
+    private final ObjectWriter objectWriter;
+
+    // marshallers are not thread-safe; idle ones are kept in a small pool instead of per thread, virtual threads are not reused
+    private static final int POOL_SIZE = 16;
+
+    private final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<Marshaller>(POOL_SIZE);
+
+    /**
+     * @param classes the classes to be bound by JAXB
+     * @throws JAXBException if the classes cannot be bound
+     */
+    public Serializer(Class<?>... classes) throws JAXBException {
+
+        this.jaxbContext = JAXBContext.newInstance(classes);
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+        this.objectWriter = mapper.writer();
+    }
+
+    public void writeXML(Object object, Writer writer) throws JAXBException {
+
+        Marshaller marshaller = this.marshallers.poll();
+
+        if (marshaller == null) {
+
+            marshaller = this.jaxbContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        }
+
+        marshaller.marshal(object, writer);
+
+        // a full pool drops the marshaller
+        this.marshallers.offer(marshaller);
+    }
+
+    public void writeJSON(Object object, Writer writer) throws IOException {
+
+        this.objectWriter.writeValue(writer, object);
+    }
+
+    public String toXML(Object object) throws JAXBException {
+
+        StringWriter writer = new StringWriter();
+        this.writeXML(object, writer);
+
+        return writer.toString();
+    }
+
+    public String toJSON(Object object) throws IOException {
+
+        return this.objectWriter.writeValueAsString(object);
+    }
+}
@@ -0,0 +1,45 @@
+package de.tu_dortmund.ub.service.catalogplus;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+public class WarmupTest extends TestCase {
+
+    public void testStatus() {
+
+        assertEquals(200, Warmup.status("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n"));
+        assertEquals(503, Warmup.status("HTTP/1.1 503 Service Unavailable\r\n\r\n"));
+        assertEquals(-1, Warmup.status(null));
+        assertEquals(-1, Warmup.status(""));
+    }
+
+    public void testDenied() {
+
+        assertTrue(Warmup.denied("HTTP/1.1 400 Bad Request\r\n\r\n{\"description\":\"You are not allowed to request results in 'json'!\"}"));
+        assertFalse(Warmup.denied("HTTP/1.1 400 Bad Request\r\n\r\n{\"description\":\"Class parameter not valid!\"}"));
+        assertFalse(Warmup.denied(null));
+    }
+
+    public void testRead() throws Exception {
+
+        File file = File.createTempFile("warmup", ".txt");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("# top queries\ninformatik\n\n  mathematik \nstraße\n");
+        }
+        finally {
+            writer.close();
+        }
+
+        assertEquals(Arrays.asList("informatik", "mathematik", "straße"), Warmup.read(file.getAbsolutePath()));
+        assertTrue(Warmup.read(null).isEmpty());
+
+        file.delete();
+    }
+}
@@ -0,0 +1,107 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.util.Properties;
+
+public class CachingResourceDiscoveryServiceTest extends TestCase {
+
+    public void testStaleWhileRevalidate() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.cache.ttl", "0");
+        config.setProperty("service.cache.ttl.hard", "60");
+
+        CountingDiscovery plugin = new CountingDiscovery();
+        CachingResourceDiscoveryService caching = new CachingResourceDiscoveryService(plugin, config);
+
+        assertEquals("json:1", caching.getSearchResultsAsJSON(request()));
+        Thread.sleep(5);
+
+        // served at once, refreshed in the background
+        assertEquals("json:1", caching.getSearchResultsAsJSON(request()));
+
+        for (int i = 0; i < 100 && caching.getRefreshes() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, caching.getRefreshes());
+        assertEquals("json:2", caching.getSearchResultsAsJSON(request()));
+
+        caching.close();
+    }
+
+    public void testStaleIfError() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.cache.ttl", "0");
+        config.setProperty("service.cache.stale-if-error", "60");
+
+        CountingDiscovery plugin = new CountingDiscovery();
+        CachingResourceDiscoveryService caching = new CachingResourceDiscoveryService(plugin, config);
+
+        caching.getSearchResultsAsJSON(request());
+        Thread.sleep(5);
+
+        plugin.failing = true;
+        try {
+            caching.getSearchResultsAsJSON(request());
+            fail();
+        }
+        catch (RDSException e) {
+            // expired
+        }
+
+        assertEquals("json:1", caching.getStale(RequestKey.of("json", request(), null)).getContent());
+
+        caching.close();
+    }
+
+    private static Properties request() {
+
+        Properties requestParameters = new Properties();
+        requestParameters.setProperty("q", "test");
+        return requestParameters;
+    }
+
+    private static class CountingDiscovery implements ResourceDiscoveryService {
+
+        private volatile int calls = 0;
+        private volatile boolean failing = false;
+
+        @Override
+        public void init(Properties config) {
+        }
+
+        @Override
+        public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+            return "html:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+            return "xml:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+            return "json:" + this.call();
+        }
+
+        @Override
+        public String getSuggestions(String prefix) throws RDSException {
+
+            return "[]";
+        }
+
+        private int call() throws RDSException {
+
+            if (this.failing) {
+                throw new RDSException("backend down");
+            }
+            return ++this.calls;
+        }
+    }
+}
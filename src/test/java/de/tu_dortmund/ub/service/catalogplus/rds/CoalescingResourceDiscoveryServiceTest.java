@@ -0,0 +1,276 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class CoalescingResourceDiscoveryServiceTest extends TestCase {
+
+    public void testConcurrentRequestsShareOneCall() throws Exception {
+
+        BlockingDiscovery plugin = new BlockingDiscovery();
+        final CoalescingResourceDiscoveryService coalescing = new CoalescingResourceDiscoveryService(plugin);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        Future<String> leader = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return coalescing.getSearchResultsAsJSON(request());
+            }
+        });
+        assertTrue(plugin.started.await(5, TimeUnit.SECONDS));
+
+        Future<String> follower = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws RDSException {
+                return coalescing.getSearchResultsAsJSON(request());
+            }
+        });
+        this.awaitShared(coalescing);
+
+        plugin.release.countDown();
+
+        assertEquals("json:1", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("json:1", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, plugin.calls);
+        assertEquals(0, coalescing.getSingleFlight().getInFlight());
+
+        executor.shutdown();
+    }
+
+    public void testStreamingCallersDoNotShareTheirWriters() throws Exception {
+
+        BlockingDiscovery plugin = new BlockingDiscovery();
+        final CoalescingResourceDiscoveryService coalescing = new CoalescingResourceDiscoveryService(plugin);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // the client of the first caller is gone
+        Future<String> leader = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws RDSException, IOException {
+                coalescing.writeSearchResultsAsJSON(request(), new Writer() {
+                    @Override
+                    public void write(char[] chars, int offset, int length) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+                return null;
+            }
+        });
+        assertTrue(plugin.started.await(5, TimeUnit.SECONDS));
+
+        Future<String> follower = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws RDSException, IOException {
+                StringWriter writer = new StringWriter();
+                coalescing.writeSearchResultsAsJSON(request(), writer);
+                return writer.toString();
+            }
+        });
+        this.awaitShared(coalescing);
+
+        plugin.release.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertEquals("Broken pipe", e.getCause().getMessage());
+        }
+        assertEquals("json:1", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, plugin.calls);
+
+        executor.shutdown();
+    }
+
+    public void testLeaderIsStreamed() throws Exception {
+
+        BlockingDiscovery plugin = new BlockingDiscovery();
+        final CoalescingResourceDiscoveryService coalescing = new CoalescingResourceDiscoveryService(plugin);
+
+        final StringBuffer buffer = new StringBuffer();
+        final Writer writer = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                buffer.append(chars, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<String> leader = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws RDSException, IOException {
+                coalescing.writeSearchResultsAsJSON(request(), writer);
+                return null;
+            }
+        });
+        assertTrue(plugin.started.await(5, TimeUnit.SECONDS));
+
+        // the first part has arrived while the backend is still busy
+        assertEquals("json:", buffer.toString());
+
+        plugin.release.countDown();
+        leader.get(5, TimeUnit.SECONDS);
+
+        assertEquals("json:1", buffer.toString());
+
+        executor.shutdown();
+    }
+
+    public void testAsyncCallsShareOneBackendCall() throws Exception {
+
+        AsyncDiscovery plugin = new AsyncDiscovery();
+        CoalescingResourceDiscoveryService coalescing = new CoalescingResourceDiscoveryService(plugin);
+
+        assertTrue(ResourceDiscoveryServiceDecorator.isAsync(coalescing));
+        assertFalse(ResourceDiscoveryServiceDecorator.isAsync(new CoalescingResourceDiscoveryService(new BlockingDiscovery())));
+
+        CompletableFuture<String> leader = coalescing.getSearchResults("json", request(), null);
+        CompletableFuture<String> follower = coalescing.getSearchResults("json", request(), null);
+
+        plugin.result.complete("json:1");
+
+        assertEquals("json:1", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("json:1", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, plugin.calls);
+        assertEquals(0, coalescing.getSingleFlight().getInFlight());
+    }
+
+    private void awaitShared(CoalescingResourceDiscoveryService coalescing) throws InterruptedException {
+
+        for (int i = 0; i < 500 && coalescing.getSingleFlight().getShared() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, coalescing.getSingleFlight().getShared());
+    }
+
+    private static Properties request() {
+
+        Properties requestParameters = new Properties();
+        requestParameters.setProperty("q", "test");
+        return requestParameters;
+    }
+
+    /**
+     * Answers asynchronous searches with one future completed by the test.
+     */
+    private static class AsyncDiscovery extends BlockingDiscovery implements AsyncResourceDiscoveryService {
+
+        private final CompletableFuture<String> result = new CompletableFuture<String>();
+        private int calls = 0;
+
+        @Override
+        public CompletableFuture<String> getSearchResults(String format, Properties requestParameters, Properties renderParameters) {
+
+            this.calls++;
+            return this.result;
+        }
+
+        @Override
+        public CompletableFuture<String> getSuggestionsAsync(String prefix) {
+
+            return CompletableFuture.completedFuture("[]");
+        }
+    }
+
+    /**
+     * Streams its results in two parts and waits for the release in between.
+     */
+    private static class BlockingDiscovery implements StreamingResourceDiscoveryService {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile int calls = 0;
+
+        @Override
+        public void init(Properties config) {
+        }
+
+        @Override
+        public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+            return "html:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+            return "xml:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+            return "json:" + this.call();
+        }
+
+        @Override
+        public String getSuggestions(String prefix) throws RDSException {
+
+            return "[]";
+        }
+
+        @Override
+        public void writeSearchResultsAsHTML(Properties requestParameters, Properties renderParameters, Writer writer) throws RDSException, IOException {
+
+            writer.write(this.getSearchResultsAsHTML(requestParameters, renderParameters));
+        }
+
+        @Override
+        public void writeSearchResultsAsXML(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+            writer.write(this.getSearchResultsAsXML(requestParameters));
+        }
+
+        @Override
+        public void writeSearchResultsAsJSON(Properties requestParameters, Writer writer) throws RDSException, IOException {
+
+            writer.write("json:");
+            writer.write(Integer.toString(this.call()));
+        }
+
+        private int call() throws RDSException {
+
+            this.started.countDown();
+
+            try {
+                this.release.await();
+            }
+            catch (InterruptedException e) {
+                throw new RDSException("interrupted");
+            }
+            return ++this.calls;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingResourceDiscoveryServiceTest extends TestCase {
+
+    public void testFasterHedgeWinsAndLoserIsCancelled() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.hedging.delay", "20");
+
+        SlowDiscovery plugin = new SlowDiscovery(1, 5000, 0);
+        HedgingResourceDiscoveryService hedging = new HedgingResourceDiscoveryService(plugin, config);
+
+        long start = System.nanoTime();
+        assertEquals("json:2", hedging.getSearchResultsAsJSON(new Properties()));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        assertEquals(1, hedging.getHedges());
+        assertEquals(1, hedging.getWins());
+        assertTrue(plugin.interrupted.await(5, TimeUnit.SECONDS));
+
+        hedging.close();
+    }
+
+    public void testBudgetStopsFurtherHedges() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.hedging.delay", "5");
+        config.setProperty("service.hedging.budget", "0");
+
+        SlowDiscovery plugin = new SlowDiscovery(Integer.MAX_VALUE, 30, 0);
+        HedgingResourceDiscoveryService hedging = new HedgingResourceDiscoveryService(plugin, config);
+
+        // a reserve of 10 hedges and no new tokens
+        for (int i = 0; i < 12; i++) {
+            hedging.getSearchResultsAsJSON(new Properties());
+        }
+
+        assertEquals(10, hedging.getHedges());
+        assertEquals(2, hedging.getBudgetExhausted());
+        assertEquals(22, plugin.calls.get());
+
+        hedging.close();
+    }
+
+    public void testDelayFollowsPercentile() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.hedging.delay", "1000");
+        config.setProperty("service.hedging.delay.min", "1");
+        config.setProperty("service.hedging.refresh", "1");
+
+        SlowDiscovery plugin = new SlowDiscovery(0, 0, 10);
+        HedgingResourceDiscoveryService hedging = new HedgingResourceDiscoveryService(plugin, config);
+
+        for (int i = 0; i < 20; i++) {
+            hedging.getSearchResultsAsJSON(new Properties());
+        }
+        assertEquals(1000, hedging.getDelayMillis());
+
+        // the next call after the refresh interval takes over the percentile of the recorded latencies
+        Thread.sleep(1000);
+        hedging.getSearchResultsAsJSON(new Properties());
+
+        assertEquals(0, hedging.getHedges());
+        assertTrue(hedging.getDelayMillis() >= 10);
+        assertTrue(hedging.getDelayMillis() < 500);
+
+        hedging.close();
+    }
+
+    /**
+     * The first 'slowCalls' calls take 'slow' ms, all others 'fast' ms.
+     */
+    private static class SlowDiscovery implements ResourceDiscoveryService {
+
+        private final int slowCalls;
+        private final long slow;
+        private final long fast;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        SlowDiscovery(int slowCalls, long slow, long fast) {
+
+            this.slowCalls = slowCalls;
+            this.slow = slow;
+            this.fast = fast;
+        }
+
+        @Override
+        public void init(Properties config) {
+        }
+
+        @Override
+        public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) throws RDSException {
+
+            return "html:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsXML(Properties requestParameters) throws RDSException {
+
+            return "xml:" + this.call();
+        }
+
+        @Override
+        public String getSearchResultsAsJSON(Properties requestParameters) throws RDSException {
+
+            return "json:" + this.call();
+        }
+
+        @Override
+        public String getSuggestions(String prefix) throws RDSException {
+
+            return "[]";
+        }
+
+        private int call() throws RDSException {
+
+            int call = this.calls.incrementAndGet();
+
+            try {
+                Thread.sleep(call <= this.slowCalls ? this.slow : this.fast);
+            }
+            catch (InterruptedException e) {
+
+                this.interrupted.countDown();
+                throw new RDSException("interrupted");
+            }
+            return call;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.util.Properties;
+
+public class PrefetchingResourceDiscoveryServiceTest extends TestCase {
+
+    public void testNextPage() {
+
+        assertEquals("2", PrefetchingResourceDiscoveryService.nextPage("", 20));
+        assertEquals("2", PrefetchingResourceDiscoveryService.nextPage(null, 20));
+        assertEquals("6", PrefetchingResourceDiscoveryService.nextPage("5", 20));
+        assertNull(PrefetchingResourceDiscoveryService.nextPage("20", 20));
+        assertNull(PrefetchingResourceDiscoveryService.nextPage("x", 20));
+    }
+
+    public void testNextPageIsServedFromCache() throws Exception {
+
+        CountingDiscovery plugin = new CountingDiscovery();
+        CachingResourceDiscoveryService cache = new CachingResourceDiscoveryService(plugin, new Properties());
+        PrefetchingResourceDiscoveryService prefetching = new PrefetchingResourceDiscoveryService(cache, new Properties());
+
+        Properties page1 = request("");
+        prefetching.served("json", page1, null);
+        assertEquals("json:", prefetching.getSearchResultsAsJSON(page1));
+
+        for (int i = 0; i < 100 && prefetching.getPrefetches() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, prefetching.getPrefetches());
+
+        // probing the cache is not counted as a hit
+        long hits = cache.getCache().getHits();
+
+        Properties page2 = request("2");
+        prefetching.served("json", page2, null);
+        assertEquals(1, prefetching.getHits());
+        assertEquals(hits, cache.getCache().getHits());
+
+        int calls = plugin.calls;
+        assertEquals("json:2", prefetching.getSearchResultsAsJSON(page2));
+        assertEquals(calls, plugin.calls);
+
+        prefetching.close();
+    }
+
+    public void testSkippedUnderLoad() throws Exception {
+
+        Properties config = new Properties();
+        config.setProperty("service.prefetch.maxactive", "0");
+
+        PrefetchingResourceDiscoveryService prefetching = new PrefetchingResourceDiscoveryService(
+                new CachingResourceDiscoveryService(new CountingDiscovery(), new Properties()), config);
+
+        prefetching.served("json", request(""), null);
+        assertEquals(1, prefetching.getSkipped());
+
+        prefetching.close();
+    }
+
+    private static Properties request(String start) {
+
+        Properties requestParameters = new Properties();
+        requestParameters.setProperty("q", "test");
+        requestParameters.setProperty("start", start);
+        return requestParameters;
+    }
+
+    private static class CountingDiscovery implements ResourceDiscoveryService {
+
+        private volatile int calls = 0;
+
+        @Override
+        public void init(Properties config) {
+        }
+
+        @Override
+        public String getSearchResultsAsHTML(Properties requestParameters, Properties renderParameters) {
+
+            this.calls++;
+            return "html:" + requestParameters.getProperty("start");
+        }
+
+        @Override
+        public String getSearchResultsAsXML(Properties requestParameters) {
+
+            this.calls++;
+            return "xml:" + requestParameters.getProperty("start");
+        }
+
+        @Override
+        public String getSearchResultsAsJSON(Properties requestParameters) {
+
+            this.calls++;
+            return "json:" + requestParameters.getProperty("start");
+        }
+
+        @Override
+        public String getSuggestions(String prefix) {
+
+            return null;
+        }
+    }
+}
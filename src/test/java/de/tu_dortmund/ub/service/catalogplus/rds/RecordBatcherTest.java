@@ -0,0 +1,113 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RecordBatcherTest extends TestCase {
+
+    public void testFailedBatchMakesResultIncomplete() throws RDSException {
+
+        RecordBatcher recordBatcher = new RecordBatcher(new BatchRetrieval(0), config());
+
+        RecordBatcher.Records records = recordBatcher.getRecords(Arrays.asList("a", "b", "fail", "c"), new Properties());
+
+        assertEquals(Arrays.asList("record:a", "record:b"), records.getRecords());
+        assertTrue(records.isIncomplete());
+
+        // cached records are complete
+        records = recordBatcher.getRecords(Arrays.asList("a", "b"), new Properties());
+        assertFalse(records.isIncomplete());
+
+        recordBatcher.close();
+    }
+
+    public void testBatchesAreFetchedConcurrently() throws RDSException {
+
+        BatchRetrieval retrieval = new BatchRetrieval(100);
+        RecordBatcher recordBatcher = new RecordBatcher(retrieval, config());
+
+        RecordBatcher.Records records = recordBatcher.getRecords(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h"), new Properties());
+
+        assertEquals(8, records.getRecords().size());
+        assertEquals(4, retrieval.calls.get());
+        assertTrue(retrieval.maxActive.get() > 1);
+
+        recordBatcher.close();
+    }
+
+    private static Properties config() {
+
+        Properties config = new Properties();
+        config.setProperty("service.records.batchsize", "2");
+        return config;
+    }
+
+    private static class BatchRetrieval implements RecordRetrievalService {
+
+        private final long delay;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        BatchRetrieval(long delay) {
+
+            this.delay = delay;
+        }
+
+        @Override
+        public Map<String, String> getRecords(Collection<String> ids, Properties requestParameters) throws RDSException {
+
+            this.calls.incrementAndGet();
+            int now = this.active.incrementAndGet();
+            int max;
+            while (now > (max = this.maxActive.get()) && !this.maxActive.compareAndSet(max, now)) {
+                // retry
+            }
+
+            try {
+                Thread.sleep(this.delay);
+
+                if (ids.contains("fail")) {
+                    throw new RDSException("backend down");
+                }
+
+                Map<String, String> records = new HashMap<String, String>();
+                for (String id : ids) {
+                    records.put(id, "record:" + id);
+                }
+                return records;
+            }
+            catch (InterruptedException e) {
+                throw new RDSException("interrupted");
+            }
+            finally {
+                this.active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String getRecordsAsHTML(List<String> records, Properties requestParameters, Properties renderParameters) {
+
+            return records.toString();
+        }
+
+        @Override
+        public String getRecordsAsXML(List<String> records, Properties requestParameters) {
+
+            return records.toString();
+        }
+
+        @Override
+        public String getRecordsAsJSON(List<String> records, Properties requestParameters) {
+
+            return records.toString();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.tu_dortmund.ub.service.catalogplus.rds;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class SuggestionIndexTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        this.file = File.createTempFile("typeahead", ".txt");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(this.file), "UTF-8");
+        try {
+            writer.write("Müller\t5\n");
+            writer.write("Mathematik\t20\n");
+            writer.write("Maschinenbau\t10\n");
+            writer.write("Machine learning\t15\n");
+            writer.write("mathematik\t1\n");
+            writer.write("Physik\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+
+        this.file.delete();
+    }
+
+    public void testLookupOrderedByWeight() throws IOException {
+
+        SuggestionIndex index = SuggestionIndex.load(this.file.getPath(), 2);
+
+        assertEquals(Arrays.asList("Mathematik", "Machine learning"), index.lookup("ma"));
+        assertEquals(Arrays.asList("Mathematik"), index.lookup("Mathem"));
+        assertEquals(5, index.getTermCount());
+    }
+
+    public void testLookupIgnoresCaseAndDiacritics() throws IOException {
+
+        SuggestionIndex index = SuggestionIndex.load(this.file.getPath(), 10);
+
+        assertEquals(Arrays.asList("Müller"), index.lookup("MUL"));
+        assertEquals(Arrays.asList("Machine learning"), index.lookup("machine  le"));
+        assertTrue(index.lookup("chemie").isEmpty());
+        assertTrue(index.lookup(" ").isEmpty());
+    }
+
+    public void testLookupIndependentOfDefaultLocale() throws IOException {
+
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+
+        try {
+            SuggestionIndex index = SuggestionIndex.load(this.file.getPath(), 10);
+
+            assertEquals(Arrays.asList("Physik"), index.lookup("PHYSIK"));
+        }
+        finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.tu_dortmund.ub.service.catalogplus.vcs;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+public class CachingVirtualClassificationSystemTest extends TestCase {
+
+    public void testRenderingsAreCached() throws VCSException {
+
+        CountingClassification plugin = new CountingClassification();
+        CachingVirtualClassificationSystem vcs = new CachingVirtualClassificationSystem(plugin, null, new Properties());
+
+        assertEquals("json:A", vcs.getClassAsJSON("A"));
+        assertEquals("json:A", vcs.getClassAsJSON("A"));
+        assertEquals(1, plugin.calls);
+
+        // one rendering per access group
+        vcs.getClassAsHTML("A", renderParameters("de", false, false));
+        vcs.getClassAsHTML("A", renderParameters("de", true, true));
+        vcs.getClassAsHTML("A", renderParameters("de", true, true));
+        assertEquals(3, plugin.calls);
+
+        vcs.reload();
+        vcs.getClassAsJSON("A");
+        assertEquals(4, plugin.calls);
+
+        vcs.close();
+    }
+
+    public void testDebugIsNotCached() throws VCSException {
+
+        CountingClassification plugin = new CountingClassification();
+        CachingVirtualClassificationSystem vcs = new CachingVirtualClassificationSystem(plugin, null, new Properties());
+
+        Properties renderParameters = renderParameters("en", false, false);
+        renderParameters.setProperty("debug", "true");
+
+        vcs.getClassAsHTML("A", renderParameters);
+        vcs.getClassAsHTML("A", renderParameters);
+        assertEquals(2, plugin.calls);
+
+        vcs.close();
+    }
+
+    public void testBatchFetchesOnlyMisses() throws Exception {
+
+        CountingClassification plugin = new CountingClassification();
+        CachingVirtualClassificationSystem vcs = new CachingVirtualClassificationSystem(plugin, null, new Properties());
+
+        vcs.getClassAsJSON("B");
+
+        Map<String, String> classes = vcs.getClassesAsJSON(Arrays.asList("C", "B", "A", "C"));
+        assertEquals(Arrays.asList("C", "B", "A"), new ArrayList<String>(classes.keySet()));
+        assertEquals(3, plugin.calls);
+
+        assertEquals("{\"C\":json:C,\"B\":json:B,\"A\":json:A}", ClassBatch.toJSON(classes));
+
+        vcs.close();
+    }
+
+    public void testPreload() throws InterruptedException {
+
+        CountingClassification plugin = new CountingClassification();
+        CachingVirtualClassificationSystem vcs = new CachingVirtualClassificationSystem(plugin, plugin, new Properties());
+
+        for (int i = 0; i < 100 && vcs.getCache().getBytes() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        assertEquals(4, plugin.calls);
+        assertNotNull(vcs.getCache().get("xml|B"));
+
+        vcs.close();
+    }
+
+    private static Properties renderParameters(String lang, boolean isTUintern, boolean isUBintern) {
+
+        Properties renderParameters = new Properties();
+        renderParameters.setProperty("lang", lang);
+        renderParameters.setProperty("isTUintern", Boolean.toString(isTUintern));
+        renderParameters.setProperty("isUBintern", Boolean.toString(isUBintern));
+        renderParameters.setProperty("debug", "false");
+        return renderParameters;
+    }
+
+    private static class CountingClassification implements VirtualClassificationSystem, EnumerableVirtualClassificationSystem {
+
+        private volatile int calls = 0;
+
+        @Override
+        public void init(Properties config) {
+        }
+
+        @Override
+        public String getClassAsHTML(String notation, Properties renderParameters) {
+
+            this.calls++;
+            return "html:" + notation + ":" + renderParameters.getProperty("isUBintern");
+        }
+
+        @Override
+        public String getClassAsXML(String notation) {
+
+            this.calls++;
+            return "xml:" + notation;
+        }
+
+        @Override
+        public String getClassAsJSON(String notation) {
+
+            this.calls++;
+            return "json:" + notation;
+        }
+
+        @Override
+        public Collection<String> getNotations() {
+
+            return Arrays.asList("A", "B");
+        }
+    }
+}
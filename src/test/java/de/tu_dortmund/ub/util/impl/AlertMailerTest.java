@@ -0,0 +1,177 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class AlertMailerTest extends TestCase {
+
+    private static final long WINDOW = 300000;
+
+    private RecordingSink sink;
+    private ManualClock clock;
+    private AlertMailer alertMailer;
+
+    @Override
+    protected void setUp() {
+
+        Properties config = new Properties();
+        config.setProperty("service.name", "test");
+        config.setProperty("service.mailer.queue", "2");
+        config.setProperty("service.mailer.window", "300");
+
+        this.sink = new RecordingSink();
+        this.clock = new ManualClock();
+        this.alertMailer = new AlertMailer(this.sink, config, this.clock, false);
+    }
+
+    public void testSignatureIgnoresQuotedValues() {
+
+        assertEquals(AlertMailer.signature("Error", "Request 'a?q=1' failed"), AlertMailer.signature("Error", "Request 'b?q=2' failed"));
+        assertFalse(AlertMailer.signature("Error", "Request failed").equals(AlertMailer.signature("Timeout", "Request failed")));
+        assertEquals(AlertMailer.signature("Error", null), AlertMailer.signature("Error", ""));
+    }
+
+    public void testRepeatsWithinWindowAreSuppressed() {
+
+        this.alert("Error", "Request 'a' failed");
+        this.clock.advance(1000);
+        this.alert("Error", "Request 'b' failed");
+        this.alert("Other", "Request 'c' failed");
+
+        assertEquals(2, this.sink.subjects.size());
+        assertEquals("Error", this.sink.subjects.get(0));
+        assertEquals("Other", this.sink.subjects.get(1));
+        assertEquals(1, this.alertMailer.getSuppressed());
+    }
+
+    public void testDigestReportsRepeats() {
+
+        this.alert("Error", "Request 'a' failed");
+        this.alert("Error", "Request 'b' failed");
+        this.alert("Error", "Request 'c' failed");
+
+        this.alertMailer.sendDigest();
+
+        assertEquals(2, this.sink.subjects.size());
+        assertEquals("[test] 2 repeated alerts", this.sink.subjects.get(1));
+        assertTrue(this.sink.messages.get(1).startsWith("2 x Error"));
+
+        // repeats are reported once
+        this.alertMailer.sendDigest();
+        assertEquals(2, this.sink.subjects.size());
+    }
+
+    public void testMailedAgainAfterWindowWhileRepeatsWaitForDigest() {
+
+        this.alert("Error", "Request 'a' failed");
+        this.clock.advance(1000);
+        this.alert("Error", "Request 'b' failed");
+
+        this.clock.advance(WINDOW);
+        this.alert("Error", "Request 'c' failed");
+
+        assertEquals(2, this.sink.subjects.size());
+        assertEquals("Request 'c' failed", this.sink.messages.get(1));
+
+        // the repeat before the new mail is still reported
+        this.alertMailer.sendDigest();
+        assertEquals(3, this.sink.subjects.size());
+        assertTrue(this.sink.messages.get(2).startsWith("1 x Error"));
+    }
+
+    public void testSignatureIsRemovedAtDigestOnly() {
+
+        this.alert("Error", "Request 'a' failed");
+        this.clock.advance(WINDOW);
+
+        // the expired signature is kept until the digest: its first alert is still the one reported
+        this.alert("Error", "Request 'b' failed");
+        this.alert("Error", "Request 'c' failed");
+        this.alertMailer.sendDigest();
+        assertTrue(this.sink.messages.get(2).contains("Request 'a' failed"));
+
+        // now the window has expired at digest time
+        this.clock.advance(WINDOW);
+        this.alertMailer.sendDigest();
+        assertEquals(3, this.sink.subjects.size());
+
+        this.alert("Error", "Request 'd' failed");
+        this.alert("Error", "Request 'e' failed");
+        this.alertMailer.sendDigest();
+        assertEquals(5, this.sink.subjects.size());
+        assertTrue(this.sink.messages.get(4).contains("Request 'd' failed"));
+    }
+
+    public void testDroppedIfQueueIsFull() {
+
+        this.alertMailer.alert("Error", "1");
+        this.alertMailer.alert("Error", "2");
+        this.alertMailer.alert("Error", "3");
+
+        assertEquals(1, this.alertMailer.getDropped());
+
+        this.alertMailer.close();
+        this.alertMailer.alert("Error", "4");
+
+        assertEquals(2, this.alertMailer.getDropped());
+    }
+
+    private void alert(String subject, String message) {
+
+        this.alertMailer.handle(new AlertMailer.Alert(subject, message, this.clock.millis()));
+    }
+
+    private static class RecordingSink implements AlertMailer.Sink {
+
+        private final List<String> subjects = new ArrayList<String>();
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void postMail(String subject, String message) {
+
+            this.subjects.add(subject);
+            this.messages.add(message);
+        }
+    }
+
+    private static class ManualClock extends Clock {
+
+        private long millis = 1000000;
+
+        void advance(long millis) {
+
+            this.millis += millis;
+        }
+
+        @Override
+        public long millis() {
+
+            return this.millis;
+        }
+
+        @Override
+        public Instant instant() {
+
+            return Instant.ofEpochMilli(this.millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+
+            return this;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+
+    public void testOpensAtThreshold() {
+
+        CircuitBreaker breaker = new CircuitBreaker(10, 0.5, 60000);
+
+        for (int i = 0; i < 4; i++) {
+            long permit = breaker.allow();
+            assertTrue(permit != CircuitBreaker.REJECTED);
+            breaker.failure(permit);
+        }
+        // window not filled enough yet
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        long permit = breaker.allow();
+        assertTrue(permit != CircuitBreaker.REJECTED);
+        breaker.failure(permit);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.allow());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    public void testTrialCallClosesBreaker() throws InterruptedException {
+
+        CircuitBreaker breaker = new CircuitBreaker(2, 0.5, 10);
+
+        breaker.failure(breaker.allow());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+
+        // exactly one trial call
+        long trial = breaker.allow();
+        assertTrue(trial != CircuitBreaker.REJECTED);
+        assertEquals(CircuitBreaker.REJECTED, breaker.allow());
+
+        breaker.success(trial);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allow() != CircuitBreaker.REJECTED);
+    }
+
+    public void testStragglerDoesNotDecideTrial() throws InterruptedException {
+
+        CircuitBreaker breaker = new CircuitBreaker(2, 0.5, 10);
+
+        // admitted before the breaker opens, completes during the trial
+        long straggler = breaker.allow();
+        breaker.failure(breaker.allow());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(20);
+
+        long trial = breaker.allow();
+        assertTrue(trial != CircuitBreaker.REJECTED);
+
+        breaker.success(straggler);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.failure(straggler);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.cancel(straggler);
+        assertEquals(CircuitBreaker.REJECTED, breaker.allow());
+
+        breaker.failure(trial);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpened());
+    }
+}
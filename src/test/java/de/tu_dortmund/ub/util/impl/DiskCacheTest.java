@@ -0,0 +1,118 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Properties;
+
+public class DiskCacheTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+
+        this.directory = Files.createTempDirectory("diskcache").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    public void testSurvivesRestart() throws IOException {
+
+        DiskCache diskCache = new DiskCache(this.directory, 60000, config("4096"));
+        diskCache.put("a", "first", 1000);
+        diskCache.put("a", "result ä", System.currentTimeMillis());
+        diskCache.close();
+
+        diskCache = new DiskCache(this.directory, 60000, config("4096"));
+        assertEquals("result ä", diskCache.get("a").getContent());
+        assertEquals(1, diskCache.getSize());
+        assertNull(diskCache.get("b"));
+        diskCache.close();
+    }
+
+    public void testSecondLevelOfResponseCache() throws IOException {
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 60000, 60000, -1, new DiskCache(this.directory, 60000, config("4096")));
+        cache.put("a", "result");
+        cache.getDiskCache().close();
+
+        // a new process
+        cache = new ResponseCache(1024 * 1024, 60000, 60000, -1, new DiskCache(this.directory, 60000, config("4096")));
+        assertEquals("result", cache.get("a"));
+        assertEquals(1, cache.getDiskCache().getHits());
+
+        // now in memory
+        assertEquals("result", cache.get("a"));
+        assertEquals(1, cache.getDiskCache().getHits());
+        cache.getDiskCache().close();
+    }
+
+    public void testCompaction() throws IOException {
+
+        DiskCache diskCache = new DiskCache(this.directory, 60000, config("1024"));
+
+        // overwrite the same keys until several segments are filled
+        for (int i = 0; i < 40; i++) {
+            diskCache.put("key" + (i % 4), repeat('x', 100) + i, System.currentTimeMillis());
+        }
+        long bytes = diskCache.getBytes();
+        assertTrue(bytes > 1024);
+
+        diskCache.compact();
+
+        assertTrue(diskCache.getBytes() < bytes);
+        assertTrue(diskCache.getCompactions() > 0);
+        assertEquals(4, diskCache.getSize());
+        assertEquals(repeat('x', 100) + "39", diskCache.get("key3").getContent());
+        diskCache.close();
+    }
+
+    public void testIncompleteEntryIsIgnored() throws IOException {
+
+        DiskCache diskCache = new DiskCache(this.directory, 60000, config("4096"));
+        diskCache.put("a", "complete", System.currentTimeMillis());
+        diskCache.put("b", "torn", System.currentTimeMillis());
+        diskCache.close();
+
+        // corrupt the content of the last entry
+        RandomAccessFile file = new RandomAccessFile(new File(this.directory, "segment-00000001.dat"), "rw");
+        file.seek(36 + 36 + "complete".length() + 1);
+        file.write('X');
+        file.close();
+
+        diskCache = new DiskCache(this.directory, 60000, config("4096"));
+        assertEquals("complete", diskCache.get("a").getContent());
+        assertNull(diskCache.get("b"));
+        diskCache.close();
+    }
+
+    private static Properties config(String segment) {
+
+        Properties config = new Properties();
+        config.setProperty("service.cache.disk.segment", segment);
+        return config;
+    }
+
+    private static String repeat(char c, int count) {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+
+public class ETagWriterTest extends TestCase {
+
+    public void testPassesContentAndMatchesETag() throws Exception {
+
+        StringWriter buffer = new StringWriter();
+        ETagWriter writer = new ETagWriter(buffer);
+
+        String content = "Grüße 📚 aus Dortmund";
+
+        // the surrogate pair is split between two writes
+        writer.write(content, 0, 7);
+        writer.write(content.toCharArray(), 7, content.length() - 7);
+
+        assertEquals(content, buffer.toString());
+        assertEquals(ETag.of(content), writer.getETag());
+    }
+
+    public void testEmptyBody() throws Exception {
+
+        ETagWriter writer = new ETagWriter(new StringWriter());
+
+        assertEquals(ETag.of(""), writer.getETag());
+    }
+}
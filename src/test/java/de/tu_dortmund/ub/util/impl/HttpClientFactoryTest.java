@@ -0,0 +1,37 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.util.Properties;
+
+public class HttpClientFactoryTest extends TestCase {
+
+    public void testKeepAliveDuration() {
+
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        assertEquals(30000, HttpClientFactory.keepAliveDuration(response, 30000));
+
+        response.setHeader("Keep-Alive", "timeout=5, max=100");
+        assertEquals(5000, HttpClientFactory.keepAliveDuration(response, 30000));
+
+        response.setHeader("Keep-Alive", "timeout=600");
+        assertEquals(30000, HttpClientFactory.keepAliveDuration(response, 30000));
+    }
+
+    public void testPool() {
+
+        Properties config = new Properties();
+        config.setProperty("service.http.maxtotal", "20");
+
+        HttpClientFactory httpClientFactory = new HttpClientFactory(config);
+
+        assertNotNull(httpClientFactory.getHttpClient());
+        assertEquals(20, httpClientFactory.getPoolStats().getMax());
+        assertEquals(0, httpClientFactory.getPoolStats().getLeased());
+
+        httpClientFactory.close();
+    }
+}
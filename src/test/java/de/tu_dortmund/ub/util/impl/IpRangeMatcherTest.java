@@ -0,0 +1,52 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+public class IpRangeMatcherTest extends TestCase {
+
+    public void testCidrAndExceptions() {
+
+        IpRangeMatcher.Builder builder = new IpRangeMatcher.Builder();
+        int tu = builder.addGroup("129.217.0.0/16|2001:638:500::/48", "129.217.1.0/24");
+        int ub = builder.addGroup("129.217.132.0/24|10.0.0.1-10.0.0.9", null);
+        IpRangeMatcher matcher = builder.build();
+
+        long groups = matcher.classify("129.217.132.17");
+        assertTrue(IpRangeMatcher.isMember(groups, tu));
+        assertTrue(IpRangeMatcher.isMember(groups, ub));
+
+        groups = matcher.classify("129.217.1.5");
+        assertFalse(IpRangeMatcher.isMember(groups, tu));
+        assertFalse(IpRangeMatcher.isMember(groups, ub));
+
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("10.0.0.9"), ub));
+        assertFalse(IpRangeMatcher.isMember(matcher.classify("10.0.0.10"), ub));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("2001:638:500:12::1"), tu));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("::ffff:129.217.5.5"), tu));
+        assertEquals(0, matcher.classify("2001:638:501::1"));
+        assertEquals(0, matcher.classify("8.8.8.8"));
+        assertEquals(0, matcher.classify("unknown"));
+        assertEquals(0, matcher.classify(null));
+    }
+
+    public void testLegacyRegularExpressions() {
+
+        IpRangeMatcher.Builder builder = new IpRangeMatcher.Builder();
+        int tu = builder.addGroup("129\\.217\\..*|192\\.168\\.1.*|127\\.0\\.0\\.1", "129\\.217\\.13\\..*");
+        int other = builder.addGroup("1[23]0\\.217\\.5\\.5|(broken", "");
+        IpRangeMatcher matcher = builder.build();
+
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("129.217.200.1"), tu));
+        assertFalse(IpRangeMatcher.isMember(matcher.classify("129.217.13.1"), tu));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("129.217.130.1"), tu));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("192.168.17.1"), tu));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("192.168.1.1"), tu));
+        assertFalse(IpRangeMatcher.isMember(matcher.classify("192.168.2.1"), tu));
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("127.0.0.1"), tu));
+        assertFalse(IpRangeMatcher.isMember(matcher.classify("127.0.0.2"), tu));
+
+        // not convertible, evaluated as pattern
+        assertTrue(IpRangeMatcher.isMember(matcher.classify("130.217.5.5"), other));
+        assertFalse(IpRangeMatcher.isMember(matcher.classify("140.217.5.5"), other));
+    }
+}
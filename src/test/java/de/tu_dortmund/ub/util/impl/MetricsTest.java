@@ -0,0 +1,47 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class MetricsTest extends TestCase {
+
+    public void testQuantilesFollowTheWindow() {
+
+        Metrics.Summary summary = new Metrics.Summary(60000);
+
+        for (int i = 0; i < 100; i++) {
+            summary.record(1000000);
+        }
+        assertEquals(1.0, summary.window(0).getValueAtPercentile(99) / 1000.0, 0.01);
+
+        // a regression shows up in the next window, no matter how long the process runs
+        for (int i = 0; i < 100; i++) {
+            summary.record(100000000);
+        }
+        assertEquals(100.0, summary.window(60000).getValueAtPercentile(50) / 1000.0, 0.1);
+
+        // lifetime totals for rates
+        assertEquals(200, summary.count.sum());
+        assertEquals(100 * 1000000L + 100 * 100000000L, summary.sum.sum());
+    }
+
+    public void testWrite() throws IOException {
+
+        Metrics metrics = new Metrics();
+        metrics.describe("duration_seconds", "summary", "Duration.");
+        metrics.observe("duration_seconds", Metrics.labels("service", "search"), 2000000);
+        metrics.increment("errors_total", Metrics.labels("code", "503"));
+
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+
+        String result = writer.toString();
+        assertTrue(result.contains("# TYPE duration_seconds summary\n"));
+        assertTrue(result.contains("duration_seconds{service=\"search\",quantile=\"0.5\"} 0.002000\n"));
+        assertTrue(result.contains("duration_seconds_sum{service=\"search\"} 0.002000\n"));
+        assertTrue(result.contains("duration_seconds_count{service=\"search\"} 1\n"));
+        assertTrue(result.contains("errors_total{code=\"503\"} 1\n"));
+    }
+}
@@ -0,0 +1,127 @@
+package de.tu_dortmund.ub.util.impl;
+
+import de.tu_dortmund.ub.service.catalogplus.rds.RequestKey;
+import junit.framework.TestCase;
+
+import java.util.Properties;
+
+public class ResponseCacheTest extends TestCase {
+
+    public void testHitAndMiss() {
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 60000);
+
+        assertNull(cache.get("a"));
+        cache.put("a", "result");
+        assertEquals("result", cache.get("a"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testContainsHasNoSideEffects() {
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 60000);
+
+        cache.put("a", "result");
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+
+        // room for two entries
+        ResponseCache cache = new ResponseCache(2 * (96 + 2 * 101), 60000);
+
+        cache.put("a", repeat('a', 100));
+        cache.put("b", repeat('b', 100));
+        cache.get("a");
+        cache.put("c", repeat('c', 100));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    public void testConcurrentAccessStaysWithinBounds() throws InterruptedException {
+
+        // split into segments
+        final long maxBytes = 4 * 1024 * 1024;
+        final ResponseCache cache = new ResponseCache(maxBytes, 60000);
+        final String content = repeat('x', 10000);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+
+            final int offset = i * 1000;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+
+                    for (int j = 0; j < 1000; j++) {
+
+                        cache.put("key" + (offset + j), content);
+                        cache.get("key" + (offset + j / 2));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(cache.getBytes() <= maxBytes);
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(8000, cache.getSize() + cache.getEvictions());
+    }
+
+    public void testExpires() throws InterruptedException {
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 10);
+
+        cache.put("a", "result");
+        Thread.sleep(20);
+
+        assertNull(cache.get("a"));
+    }
+
+    public void testStaleEntriesAreRetained() throws InterruptedException {
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 10, 60000, -1);
+
+        cache.put("a", "result");
+        Thread.sleep(20);
+
+        assertNull(cache.get("a"));
+        assertEquals("result", cache.getStale("a").getContent());
+        assertEquals(1, cache.getStaleHits());
+    }
+
+    public void testRequestKeyNormalization() {
+
+        Properties first = new Properties();
+        first.setProperty("q", " open  access ");
+        first.setProperty("fq", "Format:book;Language:de");
+
+        Properties second = new Properties();
+        second.setProperty("fq", "Language:de;Format:book");
+        second.setProperty("q", "open access");
+
+        assertEquals(RequestKey.of("json", first, null), RequestKey.of("json", second, null));
+        assertFalse(RequestKey.of("json", first, null).equals(RequestKey.of("xml", first, null)));
+    }
+
+    private static String repeat(char c, int count) {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
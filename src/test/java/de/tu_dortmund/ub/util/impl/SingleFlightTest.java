@@ -0,0 +1,185 @@
+package de.tu_dortmund.ub.util.impl;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends TestCase {
+
+    private static final int CALLERS = 8;
+
+    public void testConcurrentCallsShareOneExecution() throws Exception {
+
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = this.callConcurrently(singleFlight, new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                release.await();
+                return "result:" + calls.incrementAndGet();
+            }
+        });
+
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("result:1", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getExecutions());
+        assertEquals(CALLERS - 1, singleFlight.getShared());
+    }
+
+    public void testFailureReachesFollowers() throws Exception {
+
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = this.callConcurrently(singleFlight, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await();
+                throw new IOException("backend down");
+            }
+        });
+
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertEquals("backend down", e.getCause().getMessage());
+            }
+        }
+        assertEquals(1, singleFlight.getExecutions());
+    }
+
+    public void testKeyRemovedAfterCompletion() throws Exception {
+
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+
+        assertEquals("a", singleFlight.execute("key", new Callable<String>() {
+            @Override
+            public String call() {
+                return "a";
+            }
+        }));
+        assertEquals(0, singleFlight.getInFlight());
+
+        try {
+            singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw new IOException("backend down");
+                }
+            });
+            fail();
+        }
+        catch (IOException e) {
+            assertEquals(0, singleFlight.getInFlight());
+        }
+
+        // a later call is executed again
+        assertEquals("b", singleFlight.execute("key", new Callable<String>() {
+            @Override
+            public String call() {
+                return "b";
+            }
+        }));
+        assertEquals(3, singleFlight.getExecutions());
+        assertEquals(0, singleFlight.getShared());
+    }
+
+    public void testAsyncCallersShareOneFuture() throws Exception {
+
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CompletableFuture<String> backend = new CompletableFuture<String>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        Callable<CompletableFuture<String>> call = new Callable<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> call() {
+                calls.incrementAndGet();
+                return backend;
+            }
+        };
+
+        CompletableFuture<String> leader = singleFlight.executeAsync("key", call);
+        CompletableFuture<String> follower = singleFlight.executeAsync("key", call);
+
+        // a caller giving up does not affect the other one
+        follower.cancel(false);
+
+        assertFalse(leader.isDone());
+        assertEquals(1, singleFlight.getInFlight());
+
+        backend.complete("a");
+
+        assertEquals("a", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getShared());
+        assertEquals(0, singleFlight.getInFlight());
+
+        // a later call is executed again, its failure reaches the caller
+        CompletableFuture<String> failed = singleFlight.executeAsync("key", new Callable<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> call() throws IOException {
+                throw new IOException("backend down");
+            }
+        });
+
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertEquals("backend down", e.getCause().getMessage());
+        }
+        assertEquals(2, singleFlight.getExecutions());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    /**
+     * Starts the callers and returns as soon as all of them wait for the same call.
+     */
+    private List<Future<String>> callConcurrently(final SingleFlight<String> singleFlight, final Callable<String> call) throws InterruptedException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < CALLERS; i++) {
+
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return singleFlight.execute("key", call);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < 500 && singleFlight.getShared() < CALLERS - 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(CALLERS - 1, singleFlight.getShared());
+
+        return results;
+    }
+}